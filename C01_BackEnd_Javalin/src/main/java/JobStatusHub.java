@@ -0,0 +1,213 @@
+import io.javalin.websocket.WsContext;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers job status over /ws-status to the sessions that subscribed to that job, and to no one else.
+ *
+ * A client sends {"subscribe":[ids]} or {"unsubscribe":[ids]}; the hub keeps an index from job ID
+ * to sessions. Events are not sent as they arrive: each job keeps only its latest pending event
+ * and one flusher thread sends those every WS_FLUSH_MS, so a burst of progress updates or
+ * completions costs at most one message per job and interval. A completion is never replaced by
+ * a later progress event, and after it is sent the job's subscriptions are dropped.
+ *
+ * A browser learns a job's ID only from the HTTP response, so a small job can finish before
+ * anyone subscribes. The latest event of every job is therefore kept for WS_REPLAY_TTL_MS and
+ * sent to a session on the next flush after it subscribes; a job that already completed is not
+ * subscribed to. Every send happens on the flusher thread, as Jetty does not allow concurrent
+ * sends on one session.
+ */
+public final class JobStatusHub {
+
+    private static final long FLUSH_MS = Long.parseLong(System.getenv().getOrDefault("WS_FLUSH_MS", "250"));
+    // Caps what one session can make the hub track
+    private static final int MAX_SUBSCRIPTIONS = Integer.parseInt(System.getenv().getOrDefault("WS_MAX_SUBSCRIPTIONS", "100"));
+    // How long a job's latest event is replayed to sessions that subscribe after it was sent
+    private static final long REPLAY_TTL_MS = Long.parseLong(System.getenv().getOrDefault("WS_REPLAY_TTL_MS", "300000"));
+
+    private static final Map<String, Set<WsContext>> subscribers = new ConcurrentHashMap<>();
+    private static final Map<WsContext, Set<String>> subscriptions = new ConcurrentHashMap<>();
+    private static final Map<String, Event> pending = new ConcurrentHashMap<>();
+    private static final Map<String, Event> latest = new ConcurrentHashMap<>();
+    private static final Queue<Replay> replays = new ConcurrentLinkedQueue<>();
+
+    private static final Metrics.Counter SENT =
+            Metrics.counter("ws_messages_sent_total", "Job status messages sent to WebSocket sessions");
+    private static final Metrics.Counter COALESCED =
+            Metrics.counter("ws_events_coalesced_total", "Job status events replaced by a newer one before being sent");
+    private static final Metrics.Counter REPLAYED =
+            Metrics.counter("ws_events_replayed_total", "Earlier job status events sent to a session when it subscribed");
+
+    private JobStatusHub() {
+    }
+
+    private record Replay(WsContext session, String jobId) {
+    }
+
+    private record Event(String message, boolean completion, long at) {
+        Event(String message, boolean completion) {
+            this(message, completion, System.currentTimeMillis());
+        }
+
+        // A completion is never replaced by a later progress event
+        static Event newer(Event queued, Event next) {
+            return queued.completion() && !next.completion() ? queued : next;
+        }
+    }
+
+    public static void start() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ws-status-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(JobStatusHub::flush, FLUSH_MS, FLUSH_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Handles a client's subscribe/unsubscribe message; anything else is ignored.
+     */
+    public static void onMessage(WsContext session, String message) {
+        JSONObject request;
+        try {
+            request = new JSONObject(message);
+        } catch (Exception e) {
+            return;
+        }
+        Set<String> own = subscriptions.computeIfAbsent(session, s -> ConcurrentHashMap.newKeySet());
+        JSONArray subscribe = request.optJSONArray("subscribe");
+        for (int i = 0; subscribe != null && i < subscribe.length(); i++) {
+            String jobId = subscribe.optString(i, "");
+            if (jobId.isEmpty() || own.size() >= MAX_SUBSCRIPTIONS) {
+                continue;
+            }
+            own.add(jobId);
+            subscribers.computeIfAbsent(jobId, id -> ConcurrentHashMap.newKeySet()).add(session);
+            replays.add(new Replay(session, jobId));
+        }
+        JSONArray unsubscribe = request.optJSONArray("unsubscribe");
+        for (int i = 0; unsubscribe != null && i < unsubscribe.length(); i++) {
+            String jobId = unsubscribe.optString(i, "");
+            own.remove(jobId);
+            removeSubscriber(jobId, session);
+        }
+    }
+
+    public static void onClose(WsContext session) {
+        Set<String> own = subscriptions.remove(session);
+        if (own != null) {
+            own.forEach(jobId -> removeSubscriber(jobId, session));
+        }
+    }
+
+    /**
+     * Queues a progress event ({"id","stage","percent"}) for the job's subscribers.
+     */
+    public static void progress(String jobId, String message) {
+        enqueue(jobId, new Event(message, false));
+    }
+
+    /**
+     * Queues the job's final result for its subscribers.
+     */
+    public static void completed(String jobId, String message) {
+        enqueue(jobId, new Event(message, true));
+    }
+
+    private static void enqueue(String jobId, Event event) {
+        if (jobId == null) {
+            return;
+        }
+        latest.merge(jobId, event, Event::newer);
+        if (!subscribers.containsKey(jobId)) {
+            return; // nobody is watching this job yet
+        }
+        pending.merge(jobId, event, (queued, next) -> {
+            COALESCED.inc();
+            return Event.newer(queued, next);
+        });
+    }
+
+    /**
+     * Sends a new subscriber the job's latest event, if it had one within the replay TTL. A
+     * subscriber that receives a completion this way is unsubscribed again.
+     */
+    private static void replay(WsContext session, String jobId) {
+        Event event = latest.get(jobId);
+        if (event == null || System.currentTimeMillis() - event.at() > REPLAY_TTL_MS) {
+            return;
+        }
+        try {
+            session.send(event.message());
+            REPLAYED.inc();
+        } catch (Exception e) {
+            onClose(session);
+            return;
+        }
+        if (event.completion()) {
+            Set<String> own = subscriptions.get(session);
+            if (own != null) {
+                own.remove(jobId);
+            }
+            removeSubscriber(jobId, session);
+        }
+    }
+
+    private static void flush() {
+        long expired = System.currentTimeMillis() - REPLAY_TTL_MS;
+        latest.values().removeIf(event -> event.at() < expired);
+        Replay replay;
+        while ((replay = replays.poll()) != null) {
+            Set<String> own = subscriptions.get(replay.session());
+            if (own != null && own.contains(replay.jobId())) { // not closed or unsubscribed meanwhile
+                replay(replay.session(), replay.jobId());
+            }
+        }
+
+        Iterator<Map.Entry<String, Event>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Event> entry = iterator.next();
+            String jobId = entry.getKey();
+            Event event = entry.getValue();
+            if (!pending.remove(jobId, event)) {
+                continue; // replaced meanwhile, the newer one goes out next round
+            }
+            Set<WsContext> sessions = subscribers.getOrDefault(jobId, Set.of());
+            for (WsContext session : sessions) {
+                try {
+                    session.send(event.message());
+                    SENT.inc();
+                } catch (Exception e) {
+                    onClose(session); // the socket is gone
+                }
+            }
+            if (event.completion()) {
+                for (WsContext session : sessions) {
+                    Set<String> own = subscriptions.get(session);
+                    if (own != null) {
+                        own.remove(jobId);
+                    }
+                }
+                subscribers.remove(jobId);
+            }
+        }
+    }
+
+    private static void removeSubscriber(String jobId, WsContext session) {
+        subscribers.computeIfPresent(jobId, (id, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+}
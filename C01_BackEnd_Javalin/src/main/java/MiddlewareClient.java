@@ -0,0 +1,158 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single entry point for every call from the Javalin backend to the c05-nodejs middleware.
+ *
+ * One HTTP/2-capable HttpClient (falls back to HTTP/1.1 against Express) is shared by all
+ * handlers, so connections are pooled and there is one selector thread instead of one per
+ * request. Async work runs on a small fixed executor, a semaphore bulkhead caps the number of
+ * in-flight calls, and each endpoint has its own request timeout and latency counters.
+ */
+public final class MiddlewareClient {
+
+    private static final String BASE_URL = System.getenv().getOrDefault("MIDDLEWARE_URL", "http://c05-nodejs:5050/database");
+    private static final int MAX_CONCURRENT = Integer.parseInt(System.getenv().getOrDefault("MIDDLEWARE_MAX_CONCURRENT", "32"));
+    private static final long BULKHEAD_WAIT_MS = 2000;
+
+    public enum Endpoint {
+        LIST(Duration.ofSeconds(5)),
+        RECEIVE_FORM(Duration.ofSeconds(10)),
+        RECEIVE_FORM_BULK(Duration.ofSeconds(60)),
+        CHECK_PASSWORD(Duration.ofSeconds(5)),
+        DOWNLOAD_FINAL(Duration.ofSeconds(60));
+
+        private final Duration timeout;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final Metrics.Histogram latency = Metrics.histogram("middleware_request_seconds",
+                "Round trip of calls to the Node middleware", "endpoint", name());
+        private final Metrics.Counter failures = Metrics.counter("middleware_request_failures_total",
+                "Middleware calls that failed or answered 5xx", "endpoint", name());
+        private final Metrics.Counter rejections = Metrics.counter("middleware_request_rejected_total",
+                "Middleware calls refused by the bulkhead", "endpoint", name());
+
+        Endpoint(Duration timeout) {
+            this.timeout = timeout;
+        }
+
+        private void record(long nanos, boolean failed) {
+            calls.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            latency.observeNanos(nanos);
+            if (failed) {
+                errors.increment();
+                failures.inc();
+            }
+        }
+    }
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), daemonThreads("middleware-client"));
+
+    private static final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(executor)
+            .build();
+
+    private static final Semaphore bulkhead = new Semaphore(MAX_CONCURRENT);
+
+    private MiddlewareClient() {
+    }
+
+    /**
+     * Request builder for {@code BASE_URL + path} with the endpoint's timeout already applied.
+     */
+    public static HttpRequest.Builder request(Endpoint endpoint, String path) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(BASE_URL + path))
+                .timeout(endpoint.timeout);
+    }
+
+    public static <T> CompletableFuture<HttpResponse<T>> sendAsync(Endpoint endpoint, HttpRequest.Builder request,
+                                                                   HttpResponse.BodyHandler<T> handler) {
+        try {
+            if (!bulkhead.tryAcquire(BULKHEAD_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                endpoint.rejected.increment();
+                endpoint.rejections.inc();
+                return CompletableFuture.failedFuture(
+                        new RejectedExecutionException("Middleware bulkhead full for " + endpoint));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<T>> future;
+        try {
+            future = client.sendAsync(request.build(), handler);
+        } catch (RuntimeException e) {
+            bulkhead.release();
+            endpoint.record(System.nanoTime() - start, true);
+            return CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((response, error) -> {
+            bulkhead.release();
+            endpoint.record(System.nanoTime() - start, error != null || response.statusCode() >= 500);
+        });
+    }
+
+    /**
+     * Blocking variant for handlers that need the answer before they can continue.
+     */
+    public static <T> HttpResponse<T> send(Endpoint endpoint, HttpRequest.Builder request,
+                                           HttpResponse.BodyHandler<T> handler) throws Exception {
+        try {
+            return sendAsync(endpoint, request, handler).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    public static Map<String, Object> stats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("inFlight", MAX_CONCURRENT - bulkhead.availablePermits());
+        for (Endpoint endpoint : Endpoint.values()) {
+            long calls = endpoint.calls.sum();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("calls", calls);
+            stats.put("errors", endpoint.errors.sum());
+            stats.put("rejected", endpoint.rejected.sum());
+            stats.put("avgMillis", calls == 0 ? 0 : endpoint.totalNanos.sum() / calls / 1_000_000.0);
+            stats.put("maxMillis", endpoint.maxNanos.get() / 1_000_000.0);
+            result.put(endpoint.name(), stats);
+        }
+        return result;
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,176 @@
+import io.javalin.http.Context;
+import jakarta.servlet.ServletOutputStream;
+import org.eclipse.jetty.server.HttpOutput;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Serves files from disk with Content-Length, single byte-range requests (Range / If-Range)
+ * and ETag / Last-Modified validators, so consumers can fetch large inputs in parallel parts
+ * and retries can revalidate instead of re-downloading.
+ *
+ * The body is written without copying it through the heap: regions up to MAX_MAPPED_REGION are
+ * memory-mapped and handed to Jetty's HttpOutput, which writes them to the socket directly.
+ * Larger regions (or a non-Jetty response stream) are pushed with FileChannel.transferTo.
+ */
+public final class RangeFileServer {
+
+    private static final long MAX_MAPPED_REGION = 256L * 1024 * 1024;
+
+    private RangeFileServer() {
+    }
+
+    public static void serve(Context ctx, Path file, String downloadName, boolean headOnly) throws IOException {
+        long size = Files.size(file);
+        long lastModified = Files.getLastModifiedTime(file).toMillis() / 1000 * 1000; // HTTP dates have 1s precision
+        String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+
+        ctx.header("Accept-Ranges", "bytes");
+        ctx.header("ETag", etag);
+        ctx.header("Last-Modified", httpDate(lastModified));
+        ctx.header("Content-Disposition", "attachment; filename=" + downloadName);
+
+        if (notModified(ctx, etag, lastModified)) {
+            ctx.status(304);
+            return;
+        }
+
+        long start = 0;
+        long end = size - 1;
+        String range = ctx.header("Range");
+        if (range != null && ifRangeMatches(ctx.header("If-Range"), etag, lastModified)) {
+            long[] parsed = parseRange(range, size);
+            if (parsed == null) {
+                ctx.header("Content-Range", "bytes */" + size);
+                ctx.status(416);
+                return;
+            }
+            if (parsed.length == 2) {
+                start = parsed[0];
+                end = parsed[1];
+                ctx.status(206);
+                ctx.header("Content-Range", "bytes " + start + "-" + end + "/" + size);
+            }
+        }
+
+        long length = end - start + 1;
+        ctx.header("Content-Type", "application/octet-stream");
+        ctx.res().setContentLengthLong(length);
+        if (headOnly || length == 0) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ServletOutputStream out = ctx.res().getOutputStream();
+            if (out instanceof HttpOutput httpOutput && length <= MAX_MAPPED_REGION) {
+                // sendContent writes the whole response and completes it, so it is used for one region only
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                httpOutput.sendContent(region);
+            } else {
+                WritableByteChannel target = Channels.newChannel(out);
+                long position = start;
+                while (position <= end) {
+                    long sent = channel.transferTo(position, end - position + 1, target);
+                    if (sent <= 0) {
+                        break;
+                    }
+                    position += sent;
+                }
+                out.flush();
+            }
+        }
+    }
+
+    private static boolean notModified(Context ctx, String etag, long lastModified) {
+        String ifNoneMatch = ctx.header("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        Long ifModifiedSince = parseHttpDate(ctx.header("If-Modified-Since"));
+        return ifModifiedSince != null && lastModified <= ifModifiedSince;
+    }
+
+    private static boolean ifRangeMatches(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag); // If-Range requires a strong comparison
+        }
+        Long date = parseHttpDate(ifRange);
+        return date != null && date == lastModified;
+    }
+
+    /**
+     * Returns {start, end} for a satisfiable single range, an empty array when the header should be
+     * ignored (malformed or multiple ranges, answered with the full body), or null when unsatisfiable.
+     */
+    private static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            }
+            if (start >= size || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static String httpDate(long epochMillis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC));
+    }
+
+    private static Long parseHttpDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
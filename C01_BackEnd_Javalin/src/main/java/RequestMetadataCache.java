@@ -0,0 +1,178 @@
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory copy of the request list served by /api/data and /get-local-request.
+ *
+ * The list is loaded from the middleware once and then kept current from events the backend
+ * already sees: inserts from /send-request and completions from aesResultTopic. It is reloaded
+ * when older than CACHE_TTL_MS (catching writes made elsewhere, e.g. by another backend) and
+ * holds at most CACHE_MAX_ENTRIES requests, dropping the oldest. That cap also bounds /api/data,
+ * which lists only the newest CACHE_MAX_ENTRIES requests instead of the middleware's full list.
+ * Concurrent reloads share one middleware call.
+ */
+public final class RequestMetadataCache {
+
+    private static final long TTL_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            Long.parseLong(System.getenv().getOrDefault("CACHE_TTL_MS", "60000")));
+    private static final int MAX_ENTRIES = Integer.parseInt(System.getenv().getOrDefault("CACHE_MAX_ENTRIES", "1000"));
+
+    private static final String[] FIELDS = {"fileName", "aesLength", "requestIv", "mode", "operation"};
+
+    private static final Map<String, Entry> entries = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static long loadedAt;
+    private static boolean loaded;
+    private static CompletableFuture<List<Map<String, Object>>> reload;
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private RequestMetadataCache() {
+    }
+
+    private record Entry(Map<String, Object> fields, long updatedAt) {
+    }
+
+    /**
+     * All cached requests in insertion order; only goes to the middleware when the copy is stale.
+     */
+    public static CompletableFuture<List<Map<String, Object>>> list() {
+        synchronized (RequestMetadataCache.class) {
+            if (loaded && System.nanoTime() - loadedAt < TTL_NANOS) {
+                hits.increment();
+                return CompletableFuture.completedFuture(snapshot());
+            }
+            misses.increment();
+            if (reload == null) {
+                long startedAt = System.nanoTime();
+                CompletableFuture<List<Map<String, Object>>> started = MiddlewareClient.sendAsync(
+                        MiddlewareClient.Endpoint.LIST,
+                        MiddlewareClient.request(MiddlewareClient.Endpoint.LIST, "/")
+                                .header("Content-Type", "application/json")
+                                .GET(),
+                        HttpResponse.BodyHandlers.ofString()
+                ).thenApply(response -> replaceAll(parseDocuments(response.body()), startedAt));
+                reload = started;
+                // Attached after the assignment: a future that is already done runs this inline
+                started.whenComplete((ignored, error) -> {
+                    synchronized (RequestMetadataCache.class) {
+                        if (reload == started) {
+                            reload = null;
+                        }
+                    }
+                });
+            }
+            return reload;
+        }
+    }
+
+    /**
+     * Records a request the backend has just inserted through the middleware.
+     */
+    public static void put(String id, JSONObject request) {
+        Map<String, Object> fields = fields(request, id);
+        synchronized (RequestMetadataCache.class) {
+            entries.put(id, new Entry(fields, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Applies a completion from aesResultTopic. The consumer may have generated the IV, so it
+     * replaces the one stored at insert time. Unknown ids are ignored; the next reload has them.
+     */
+    public static void complete(JSONObject result) {
+        String id = result.optString("id", null);
+        String requestIv = result.optString("requestIv", null);
+        if (id == null || requestIv == null) {
+            return;
+        }
+        synchronized (RequestMetadataCache.class) {
+            Entry entry = entries.get(id);
+            if (entry != null) {
+                Map<String, Object> fields = new LinkedHashMap<>(entry.fields());
+                fields.put("requestIv", requestIv);
+                entries.put(id, new Entry(fields, System.nanoTime()));
+            }
+        }
+    }
+
+    public static Map<String, Object> stats() {
+        synchronized (RequestMetadataCache.class) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("entries", entries.size());
+            result.put("hits", hits.sum());
+            result.put("misses", misses.sum());
+            result.put("ageMillis", loaded ? (System.nanoTime() - loadedAt) / 1_000_000 : -1);
+            return result;
+        }
+    }
+
+    /**
+     * Swaps in a freshly loaded list, keeping local updates made after the load started, since the
+     * middleware's answer may predate them.
+     */
+    private static List<Map<String, Object>> replaceAll(List<Map<String, Object>> documents, long startedAt) {
+        Map<String, Entry> fresh = new LinkedHashMap<>();
+        for (Map<String, Object> fields : documents) {
+            fresh.put((String) fields.get("_id"), new Entry(fields, startedAt));
+        }
+
+        synchronized (RequestMetadataCache.class) {
+            for (Map.Entry<String, Entry> local : entries.entrySet()) {
+                if (local.getValue().updatedAt() > startedAt) {
+                    fresh.put(local.getKey(), local.getValue());
+                }
+            }
+            entries.clear();
+            entries.putAll(fresh);
+            loadedAt = startedAt;
+            loaded = true;
+            return snapshot();
+        }
+    }
+
+    /**
+     * The listed fields of every document in a middleware list response.
+     */
+    static List<Map<String, Object>> parseDocuments(String body) {
+        JSONArray documents = new JSONArray(body);
+        List<Map<String, Object>> result = new ArrayList<>(documents.length());
+        for (int i = 0; i < documents.length(); i++) {
+            JSONObject document = documents.getJSONObject(i);
+            result.add(fields(document, String.valueOf(document.get("_id"))));
+        }
+        return result;
+    }
+
+    private static Map<String, Object> fields(JSONObject document, String id) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (String field : FIELDS) {
+            fields.put(field, document.optString(field, ""));
+        }
+        fields.put("_id", id);
+        return fields;
+    }
+
+    private static List<Map<String, Object>> snapshot() {
+        List<Map<String, Object>> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            result.add(entry.fields());
+        }
+        return result;
+    }
+}
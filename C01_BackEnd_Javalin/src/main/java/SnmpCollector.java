@@ -0,0 +1,184 @@
+import org.snmp4j.CommunityTarget;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.GenericAddress;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls CPU and memory usage of the cluster nodes in the background, so /api/snmp-status only
+ * reads memory and never waits on an agent.
+ *
+ * One Snmp session (one UDP socket) is opened at startup and shared. Every SNMP_POLL_MS each
+ * node gets one asynchronous GET carrying all three OIDs; the responses arrive on the session's
+ * listener thread, so a dead agent only costs its own sample. The last SNMP_HISTORY samples of
+ * each node are kept in a fixed-size ring of primitive arrays, -1 marking a failed poll.
+ */
+public final class SnmpCollector {
+
+    private static final String COMMUNITY = "public";
+    private static final long POLL_MS = Long.parseLong(System.getenv().getOrDefault("SNMP_POLL_MS", "5000"));
+    private static final int HISTORY = Integer.parseInt(System.getenv().getOrDefault("SNMP_HISTORY", "60"));
+    // name=host pairs; the names are the keys of the /api/snmp-status response
+    private static final String NODES = System.getenv().getOrDefault("SNMP_NODES",
+            "jmsConsumer=c03-jms-consumer,mpiNode=c04-mpi-node");
+
+    private static final OID CPU_IDLE = new OID("1.3.6.1.4.1.2021.11.9.0");
+    private static final OID MEM_AVAIL = new OID("1.3.6.1.4.1.2021.4.6.0");
+    private static final OID MEM_TOTAL = new OID("1.3.6.1.4.1.2021.4.5.0");
+
+    private static final Map<String, Node> nodes = new LinkedHashMap<>();
+    private static Snmp snmp;
+
+    private SnmpCollector() {
+    }
+
+    public static synchronized void start() {
+        if (snmp != null) {
+            return;
+        }
+        for (String entry : NODES.split(",")) {
+            String[] parts = entry.trim().split("=", 2);
+            if (parts.length == 2) {
+                nodes.put(parts[0].trim(), new Node(parts[1].trim()));
+            }
+        }
+        try {
+            snmp = new Snmp(new DefaultUdpTransportMapping());
+            snmp.listen();
+        } catch (IOException e) {
+            System.out.println("SNMP comunication ERROR - Could not open the SNMP session: " + e.getMessage());
+            return;
+        }
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snmp-collector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(SnmpCollector::pollAll, 0, POLL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Latest sample of every node (same fields as before, "N/A" when unknown) plus its history.
+     */
+    public static Map<String, Object> status() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return result;
+    }
+
+    private static void pollAll() {
+        for (Node node : nodes.values()) {
+            try {
+                PDU pdu = new PDU();
+                pdu.add(new VariableBinding(CPU_IDLE));
+                pdu.add(new VariableBinding(MEM_AVAIL));
+                pdu.add(new VariableBinding(MEM_TOTAL));
+                pdu.setType(PDU.GET);
+                snmp.send(pdu, node.target, node, node);
+            } catch (Exception e) {
+                node.record(-1, -1);
+            }
+        }
+    }
+
+    private static final class Node implements ResponseListener {
+        private final CommunityTarget<Address> target = new CommunityTarget<>();
+
+        private final long[] sampledAt = new long[HISTORY];
+        private final int[] cpu = new int[HISTORY];
+        private final int[] memory = new int[HISTORY];
+        private int next;
+        private int count;
+
+        Node(String host) {
+            target.setCommunity(new OctetString(COMMUNITY));
+            target.setAddress(GenericAddress.parse("udp:" + host + "/161"));
+            target.setRetries(1);
+            target.setTimeout(Math.max(500, POLL_MS / 3));
+            target.setVersion(SnmpConstants.version2c);
+        }
+
+        @Override
+        public <A extends Address> void onResponse(ResponseEvent<A> event) {
+            // Asynchronous requests must be cancelled explicitly, or snmp4j keeps them pending
+            ((Snmp) event.getSource()).cancel(event.getRequest(), this);
+
+            PDU response = event.getResponse();
+            if (response == null || response.getErrorStatus() != 0 || response.size() < 3) {
+                record(-1, -1);
+                return;
+            }
+            int cpuIdle = intValue(response.get(0).getVariable());
+            int memAvail = intValue(response.get(1).getVariable());
+            int memTotal = intValue(response.get(2).getVariable());
+
+            int cpuUsage = cpuIdle < 0 ? -1 : 100 - cpuIdle;
+            int memUsage = memAvail < 0 || memTotal <= 0 ? -1 : (int) (((double) (memTotal - memAvail) / memTotal) * 100);
+            record(cpuUsage, memUsage);
+        }
+
+        synchronized void record(int cpuUsage, int memUsage) {
+            sampledAt[next] = System.currentTimeMillis();
+            cpu[next] = cpuUsage;
+            memory[next] = memUsage;
+            next = (next + 1) % HISTORY;
+            count = Math.min(count + 1, HISTORY);
+        }
+
+        synchronized Map<String, Object> toMap() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            int latest = (next - 1 + HISTORY) % HISTORY;
+            result.put("cpuUsagePercent", count == 0 ? "N/A" : format(cpu[latest]));
+            result.put("memoryUsagePercent", count == 0 ? "N/A" : format(memory[latest]));
+            result.put("sampledAt", count == 0 ? null : sampledAt[latest]);
+
+            List<Long> times = new ArrayList<>(count);
+            List<Integer> cpuHistory = new ArrayList<>(count);
+            List<Integer> memoryHistory = new ArrayList<>(count);
+            for (int i = count; i > 0; i--) {
+                int index = (next - i + HISTORY) % HISTORY;
+                times.add(sampledAt[index]);
+                cpuHistory.add(cpu[index]);
+                memoryHistory.add(memory[index]);
+            }
+            result.put("history", Map.of("sampledAt", times, "cpuUsagePercent", cpuHistory,
+                    "memoryUsagePercent", memoryHistory));
+            return result;
+        }
+
+        private static int intValue(Variable variable) {
+            if (variable == null || variable.isException()) {
+                return -1;
+            }
+            try {
+                return Integer.parseInt(variable.toString());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private static String format(int value) {
+            return value < 0 ? "N/A" : String.valueOf(value);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.ism;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses a file in independent blocks before it is encrypted, and restores it after it is
+ * decrypted. Blocks are deflated and inflated in parallel; only a window of them is in memory at a
+ * time, so files of any size work.
+ *
+ * Framed format, big-endian: the header is the magic "ISMZ", a 2-byte version, 2 reserved bytes,
+ * the 4-byte block size and the 8-byte original size. Each block follows as a 12-byte header (stored
+ * length with the top bit set when the block is kept uncompressed, original length, CRC-32 of the
+ * original bytes) and its stored bytes. Decryption recognizes the frame by checking the whole block
+ * chain, not just the magic, so an ordinary file that happens to start with it is left alone.
+ */
+final class BlockCompressor {
+
+    private static final byte[] MAGIC = "ISMZ".getBytes(StandardCharsets.US_ASCII);
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int BLOCK_HEADER_SIZE = 12;
+    private static final int STORED_RAW = 0x80000000;
+    private static final int MIN_BLOCK_SIZE = 4096;
+    private static final int MAX_BLOCK_SIZE = 64 << 20;
+
+    private static final int THREADS = Integer.parseInt(System.getenv().getOrDefault("COMPRESS_THREADS",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+    private static final int WINDOW = THREADS * 2;
+
+    private static final ExecutorService pool = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "block-compressor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Metrics.Counter BYTES_IN =
+            Metrics.counter("compression_bytes_total", "Bytes through the compression stage", "side", "original");
+    private static final Metrics.Counter BYTES_OUT =
+            Metrics.counter("compression_bytes_total", "Bytes through the compression stage", "side", "compressed");
+
+    private BlockCompressor() {
+    }
+
+    /**
+     * Writes the framed, compressed form of {@code input} to {@code output}.
+     *
+     * @return the size of the output
+     */
+    static long compress(Path input, Path output, int blockSize, int level) throws IOException {
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Compression block size must be between " + MIN_BLOCK_SIZE
+                    + " and " + MAX_BLOCK_SIZE + " bytes");
+        }
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long blocks = (size + blockSize - 1) / blockSize;
+            writeFully(out, ByteBuffer.allocate(HEADER_SIZE).put(MAGIC).putShort(VERSION).putShort((short) 0)
+                    .putInt(blockSize).putLong(size).flip());
+
+            // Blocks are compressed in parallel but written in order, as their stored sizes come in
+            ArrayDeque<Future<ByteBuffer>> window = new ArrayDeque<>();
+            long next = 0;
+            while (next < blocks || !window.isEmpty()) {
+                while (next < blocks && window.size() < WINDOW) {
+                    long block = next++;
+                    window.add(pool.submit(() -> compressBlock(in, block, blockSize, size, level)));
+                }
+                writeFully(out, await(window.poll()));
+            }
+            BYTES_IN.add(size);
+            BYTES_OUT.add(out.size());
+            return out.size();
+        }
+    }
+
+    /**
+     * Whether {@code path} holds a complete, well-formed frame written by {@link #compress}.
+     */
+    static boolean isFramed(Path path) throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readFrame(in) != null;
+        }
+    }
+
+    /**
+     * Whether {@code data} starts like a frame; only {@link #isFramed} tells whether it is one.
+     */
+    static boolean hasMagic(byte[] data) {
+        return data.length >= HEADER_SIZE && Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /**
+     * Restores the original of the framed file {@code input} into {@code output}, checking each
+     * block's CRC.
+     */
+    static void decompress(Path input, Path output) throws IOException {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Frame frame = readFrame(in);
+            if (frame == null) {
+                throw new IOException("Not a compressed frame: " + input.getFileName());
+            }
+            // Every block lands at its own offset of the output, so they are written as they finish
+            ArrayDeque<Future<ByteBuffer>> window = new ArrayDeque<>();
+            long position = HEADER_SIZE;
+            for (long block = 0; block < frame.blocks; block++) {
+                if (window.size() >= WINDOW) {
+                    await(window.poll());
+                }
+                long at = position;
+                long target = block * frame.blockSize;
+                window.add(pool.submit(() -> decompressBlock(in, out, at, target)));
+                position += BLOCK_HEADER_SIZE + (readBlockHeader(in, at).getInt(0) & ~STORED_RAW);
+            }
+            while (!window.isEmpty()) {
+                await(window.poll());
+            }
+        }
+    }
+
+    private record Frame(int blockSize, long originalSize, long blocks) {
+    }
+
+    /**
+     * The frame's header if the whole block chain is consistent with it and ends with the file, else null.
+     */
+    private static Frame readFrame(FileChannel in) throws IOException {
+        long fileSize = in.size();
+        if (fileSize < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(in, header, 0);
+        byte[] magic = new byte[MAGIC.length];
+        header.flip().get(magic);
+        short version = header.getShort();
+        header.getShort();
+        int blockSize = header.getInt();
+        long originalSize = header.getLong();
+        if (!Arrays.equals(magic, MAGIC) || version != VERSION || blockSize < MIN_BLOCK_SIZE
+                || blockSize > MAX_BLOCK_SIZE || originalSize < 0) {
+            return null;
+        }
+
+        long blocks = (originalSize + blockSize - 1) / blockSize;
+        long position = HEADER_SIZE;
+        for (long block = 0; block < blocks; block++) {
+            if (position + BLOCK_HEADER_SIZE > fileSize) {
+                return null;
+            }
+            ByteBuffer blockHeader = readBlockHeader(in, position);
+            int stored = blockHeader.getInt(0) & ~STORED_RAW;
+            int original = blockHeader.getInt(4);
+            if (original != Math.min(blockSize, originalSize - block * blockSize) || stored > original) {
+                return null;
+            }
+            position += BLOCK_HEADER_SIZE + stored;
+        }
+        return position == fileSize ? new Frame(blockSize, originalSize, blocks) : null;
+    }
+
+    private static ByteBuffer compressBlock(FileChannel in, long block, int blockSize, long size, int level)
+            throws IOException {
+        int length = (int) Math.min(blockSize, size - block * blockSize);
+        byte[] original = new byte[length];
+        readFully(in, ByteBuffer.wrap(original), block * blockSize);
+        CRC32 crc = new CRC32();
+        crc.update(original);
+
+        byte[] compressed = new byte[length];
+        Deflater deflater = new Deflater(level, true);
+        int stored;
+        try {
+            deflater.setInput(original);
+            deflater.finish();
+            stored = deflater.deflate(compressed);
+            if (!deflater.finished()) {
+                stored = -1; // does not shrink, keep the block as it is
+            }
+        } finally {
+            deflater.end();
+        }
+
+        boolean raw = stored < 0;
+        ByteBuffer out = ByteBuffer.allocate(BLOCK_HEADER_SIZE + (raw ? length : stored));
+        out.putInt(raw ? length | STORED_RAW : stored).putInt(length).putInt((int) crc.getValue());
+        out.put(raw ? original : compressed, 0, raw ? length : stored);
+        return out.flip();
+    }
+
+    private static ByteBuffer decompressBlock(FileChannel in, FileChannel out, long position, long target)
+            throws IOException {
+        ByteBuffer header = readBlockHeader(in, position);
+        int storedField = header.getInt(0);
+        boolean raw = (storedField & STORED_RAW) != 0;
+        int stored = storedField & ~STORED_RAW;
+        int length = header.getInt(4);
+        byte[] data = new byte[stored];
+        readFully(in, ByteBuffer.wrap(data), position + BLOCK_HEADER_SIZE);
+
+        byte[] original = data;
+        if (!raw) {
+            original = new byte[length];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data);
+                if (inflater.inflate(original) != length) {
+                    throw new IOException("Compressed block at " + position + " is truncated");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Compressed block at " + position + " is corrupt", e);
+            } finally {
+                inflater.end();
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(original);
+        if ((int) crc.getValue() != header.getInt(8)) {
+            throw new IOException("CRC mismatch in compressed block at " + position);
+        }
+        ByteBuffer result = ByteBuffer.wrap(original);
+        while (result.hasRemaining()) {
+            out.write(result, target + result.position());
+        }
+        return result;
+    }
+
+    private static ByteBuffer readBlockHeader(FileChannel in, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        readFully(in, header, position);
+        return header.flip();
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static ByteBuffer await(Future<ByteBuffer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Compression block failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.ism;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks the cipher backend per job from a cost model: in-process Java engine, hybrid on this node
+ * only, or hybrid on every MPI node.
+ *
+ * Each backend has a linear model per mode and operation, seconds = fixed + perMb * megabytes,
+ * fitted by least squares over its recent jobs (older jobs decay away) and seeded with a prior,
+ * so it makes sensible choices before any job has run. The cheapest prediction wins. Every
+ * EXPLORE_EVERY-th decision goes to the runner-up instead when it is predicted within
+ * EXPLORE_MARGIN of the best, so near-tied backends keep getting fresh measurements; clearly
+ * worse ones (a cluster launch for a 4 KB file) are never tried.
+ */
+final class EngineDispatcher {
+
+    enum Backend {
+        JAVA("java"), LOCAL_HYBRID("local_hybrid"), MPI_CLUSTER("mpi_cluster");
+
+        final String label;
+
+        Backend(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final double MB = 1024.0 * 1024.0;
+    private static final int EXPLORE_EVERY = 20;
+    private static final double EXPLORE_MARGIN = 1.5;
+
+    private final long javaMaxBytes;
+    private final Map<Backend, double[]> priors = new EnumMap<>(Backend.class);
+    private final Map<String, CostModel> models = new ConcurrentHashMap<>();
+    private final AtomicLong decisions = new AtomicLong();
+
+    /**
+     * @param javaMaxBytes largest input the in-process engine may take
+     * @param clusterLaunchSeconds prior fixed cost of a cluster run (an mpirun launch, or much less
+     *                             with a warm worker)
+     */
+    EngineDispatcher(long javaMaxBytes, double clusterLaunchSeconds) {
+        this.javaMaxBytes = javaMaxBytes;
+        // {fixed seconds, seconds per MB}: starting points only, replaced by measurements as jobs run
+        priors.put(Backend.JAVA, new double[]{0.002, 1 / 800.0});
+        priors.put(Backend.LOCAL_HYBRID, new double[]{0.3, 1 / 1200.0});
+        priors.put(Backend.MPI_CLUSTER, new double[]{clusterLaunchSeconds, 1 / 2000.0});
+    }
+
+    Backend choose(long bytes, String mode, String operation) {
+        double megabytes = bytes / MB;
+        Backend best = null;
+        Backend runnerUp = null;
+        Map<Backend, Double> predicted = new EnumMap<>(Backend.class);
+        for (Backend backend : Backend.values()) {
+            if (backend == Backend.JAVA && bytes > javaMaxBytes) {
+                continue;
+            }
+            double seconds = model(backend, mode, operation).predict(megabytes);
+            predicted.put(backend, seconds);
+            if (best == null || seconds < predicted.get(best)) {
+                runnerUp = best;
+                best = backend;
+            } else if (runnerUp == null || seconds < predicted.get(runnerUp)) {
+                runnerUp = backend;
+            }
+        }
+
+        Backend chosen = best;
+        if (runnerUp != null && decisions.incrementAndGet() % EXPLORE_EVERY == 0
+                && predicted.get(runnerUp) <= predicted.get(best) * EXPLORE_MARGIN) {
+            chosen = runnerUp;
+        }
+
+        StringBuilder estimates = new StringBuilder();
+        predicted.forEach((backend, seconds) -> estimates.append(estimates.length() == 0 ? "" : ", ")
+                .append(backend.label).append(' ').append(Math.round(seconds * 1000)).append(" ms"));
+        System.out.printf("[dispatch] %d bytes %s/%s -> %s%s (predicted %s)%n", bytes, mode.toLowerCase(),
+                operation.toLowerCase(), chosen.label, chosen == best ? "" : " (exploring)", estimates);
+        Metrics.counter("aes_dispatch_total", "Jobs routed to each cipher backend", "backend", chosen.label).inc();
+        return chosen;
+    }
+
+    /**
+     * Feeds a completed job's cipher time back into its backend's model.
+     */
+    void record(Backend backend, String mode, String operation, long bytes, long nanos) {
+        model(backend, mode, operation).observe(bytes / MB, nanos / 1e9);
+    }
+
+    private CostModel model(Backend backend, String mode, String operation) {
+        String key = backend.label + '/' + mode.toLowerCase() + '/' + operation.toLowerCase();
+        return models.computeIfAbsent(key, k -> new CostModel(priors.get(backend)[0], priors.get(backend)[1]));
+    }
+
+    /**
+     * Exponentially weighted least-squares fit of seconds against megabytes, regularized by the
+     * backend's prior.
+     */
+    private static final class CostModel {
+        private static final double DECAY = 0.95;
+        // The prior counts as two jobs (at 1 MB and 1 GB) that never decay: measurements outweigh it
+        // where they are, and it keeps the slope when recent jobs all have about the same size
+        private static final double PRIOR_WEIGHT = 1.0;
+
+        private final Sums prior = new Sums();
+        private final Sums observed = new Sums();
+
+        CostModel(double fixedSeconds, double secondsPerMb) {
+            prior.add(1, fixedSeconds + secondsPerMb, PRIOR_WEIGHT);
+            prior.add(1024, fixedSeconds + secondsPerMb * 1024, PRIOR_WEIGHT);
+        }
+
+        synchronized void observe(double megabytes, double seconds) {
+            observed.decay(DECAY);
+            observed.add(megabytes, seconds, 1);
+        }
+
+        synchronized double predict(double megabytes) {
+            double weight = prior.weight + observed.weight;
+            double meanX = (prior.sumX + observed.sumX) / weight;
+            double meanY = (prior.sumY + observed.sumY) / weight;
+            double varianceX = (prior.sumXX + observed.sumXX) / weight - meanX * meanX;
+            double covariance = (prior.sumXY + observed.sumXY) / weight - meanX * meanY;
+            double perMb = varianceX > 1e-9 ? Math.max(0, covariance / varianceX) : 0;
+            double fixed = Math.max(0, meanY - perMb * meanX);
+            return fixed + perMb * megabytes;
+        }
+    }
+
+    private static final class Sums {
+        private double weight;
+        private double sumX;
+        private double sumY;
+        private double sumXX;
+        private double sumXY;
+
+        void add(double x, double y, double w) {
+            weight += w;
+            sumX += w * x;
+            sumY += w * y;
+            sumXX += w * x * x;
+            sumXY += w * x * y;
+        }
+
+        void decay(double factor) {
+            weight *= factor;
+            sumX *= factor;
+            sumY *= factor;
+            sumXX *= factor;
+            sumXY *= factor;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.ism;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decides which queued job the workers run next, instead of plain arrival order, so one large
+ * upload or one busy client does not hold everyone else up.
+ *
+ * Jobs are sorted into lanes by input size (unknown sizes count as medium). The lanes share the
+ * workers by weight with stride scheduling: a lane's pass advances by 1/weight per job it gets, and
+ * the non-empty lane with the lowest pass goes next. With weights 6,3,1 small jobs get six turns for
+ * every large one while all lanes are busy, and an idle lane's share goes to the others. Inside a
+ * lane the owners take turns, one job each. A job that has waited past the aging limit goes before
+ * all of that, oldest first, so large jobs still start under a steady stream of small ones.
+ */
+final class FairScheduler {
+
+    enum Lane {
+        SMALL, MEDIUM, LARGE;
+
+        String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final class Task {
+        final String owner;
+        final long enqueued = System.nanoTime();
+        final Callable<?> job;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        boolean taken;
+
+        Task(String owner, Callable<?> job) {
+            this.owner = owner;
+            this.job = job;
+        }
+    }
+
+    private static final class LaneQueue {
+        final Lane lane;
+        final double stride;
+        double pass;
+        int size;
+        final Map<String, ArrayDeque<Task>> byOwner = new HashMap<>();
+        final ArrayDeque<String> turns = new ArrayDeque<>();  // owners with queued jobs, next one first
+        final ArrayDeque<Task> arrivals = new ArrayDeque<>(); // arrival order for aging, taken tasks skipped lazily
+
+        final Metrics.Gauge depth;
+        final Metrics.Histogram waitTime;
+        final Metrics.Counter aged;
+
+        LaneQueue(Lane lane, int weight) {
+            this.lane = lane;
+            this.stride = 1.0 / weight;
+            this.depth = Metrics.gauge("scheduler_queue_depth", "Jobs waiting in each scheduler lane", "lane", lane.label());
+            this.waitTime = Metrics.histogram("scheduler_wait_seconds", "Time jobs waited in each scheduler lane", "lane", lane.label());
+            this.aged = Metrics.counter("scheduler_aged_total", "Jobs dispatched ahead of their turn after waiting past the aging limit",
+                    "lane", lane.label());
+        }
+
+        void add(Task task) {
+            byOwner.computeIfAbsent(task.owner, owner -> {
+                turns.addLast(owner);
+                return new ArrayDeque<>();
+            }).addLast(task);
+            arrivals.addLast(task);
+            size++;
+            depth.inc();
+        }
+
+        Task oldest() {
+            while (!arrivals.isEmpty() && arrivals.peekFirst().taken) {
+                arrivals.pollFirst();
+            }
+            return arrivals.peekFirst();
+        }
+
+        /**
+         * The next job of the owner whose turn it is; that owner goes to the back of the line.
+         */
+        Task nextInTurn() {
+            String owner = turns.pollFirst();
+            ArrayDeque<Task> queue = byOwner.get(owner);
+            Task task = queue.pollFirst();
+            if (queue.isEmpty()) {
+                byOwner.remove(owner);
+            } else {
+                turns.addLast(owner);
+            }
+            return taken(task);
+        }
+
+        /**
+         * The oldest job of the lane, which is always the head of its owner's queue; turns do not move.
+         */
+        Task takeOldest() {
+            Task task = oldest();
+            ArrayDeque<Task> queue = byOwner.get(task.owner);
+            queue.pollFirst();
+            if (queue.isEmpty()) {
+                byOwner.remove(task.owner);
+                turns.remove(task.owner);
+            }
+            return taken(task);
+        }
+
+        private Task taken(Task task) {
+            task.taken = true;
+            size--;
+            depth.dec();
+            return task;
+        }
+    }
+
+    private final long smallMaxBytes;
+    private final long largeMinBytes;
+    private final long agingNanos;
+    private final Map<Lane, LaneQueue> lanes = new EnumMap<>(Lane.class);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private double virtualTime;
+    private boolean closed;
+
+    /**
+     * @param laneWeights comma-separated weights of the small, medium and large lanes, e.g. "6,3,1"
+     * @param agingMs     wait after which a job is dispatched ahead of its turn (0 disables aging)
+     */
+    FairScheduler(long smallMaxBytes, long largeMinBytes, String laneWeights, long agingMs) {
+        String[] weights = laneWeights.split(",");
+        if (weights.length != Lane.values().length) {
+            throw new IllegalArgumentException("Expected one weight per lane (small,medium,large), got: " + laneWeights);
+        }
+        for (Lane lane : Lane.values()) {
+            int weight = Integer.parseInt(weights[lane.ordinal()].trim());
+            if (weight < 1) {
+                throw new IllegalArgumentException("Lane weights must be at least 1, got: " + laneWeights);
+            }
+            lanes.put(lane, new LaneQueue(lane, weight));
+        }
+        this.smallMaxBytes = smallMaxBytes;
+        this.largeMinBytes = largeMinBytes;
+        this.agingNanos = agingMs > 0 ? TimeUnit.MILLISECONDS.toNanos(agingMs) : Long.MAX_VALUE;
+    }
+
+    Lane laneFor(long sizeBytes) {
+        if (sizeBytes < 0) {
+            return Lane.MEDIUM;
+        }
+        return sizeBytes <= smallMaxBytes ? Lane.SMALL : sizeBytes >= largeMinBytes ? Lane.LARGE : Lane.MEDIUM;
+    }
+
+    /**
+     * Runs {@code workers} dispatch loops on the executor; each takes the next job and runs it.
+     */
+    void start(ExecutorService executor, int workers) {
+        for (int i = 0; i < workers; i++) {
+            executor.submit(this::workLoop);
+        }
+    }
+
+    /**
+     * Queues a job; the returned future completes when it has run, exceptionally if it threw.
+     *
+     * @param sizeBytes input size in bytes, or -1 when not known
+     * @param owner     who the job is for; owners in the same lane take turns
+     */
+    CompletableFuture<Void> submit(long sizeBytes, String owner, Callable<?> job) {
+        Task task = new Task(owner == null ? "" : owner, job);
+        LaneQueue lane = lanes.get(laneFor(sizeBytes));
+        lock.lock();
+        try {
+            if (closed) {
+                task.done.completeExceptionally(new RejectedExecutionException("Scheduler is shut down"));
+                return task.done;
+            }
+            if (lane.size == 0) {
+                lane.pass = Math.max(lane.pass, virtualTime); // no credit for the time the lane sat idle
+            }
+            lane.add(task);
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        return task.done;
+    }
+
+    /**
+     * Stops dispatching; jobs still queued complete with a CancellationException.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            for (LaneQueue lane : lanes.values()) {
+                while (lane.size > 0) {
+                    lane.nextInTurn().done.completeExceptionally(new CancellationException("Scheduler is shut down"));
+                }
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void workLoop() {
+        Task task;
+        while ((task = take()) != null) {
+            try {
+                task.job.call();
+                task.done.complete(null);
+            } catch (Throwable e) {
+                task.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    private Task take() {
+        lock.lock();
+        try {
+            while (!closed) {
+                Task task = pick();
+                if (task != null) {
+                    return task;
+                }
+                available.awaitUninterruptibly();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Task pick() {
+        long now = System.nanoTime();
+        LaneQueue overdue = null;
+        LaneQueue next = null;
+        for (LaneQueue lane : lanes.values()) {
+            if (lane.size == 0) {
+                continue;
+            }
+            Task oldest = lane.oldest();
+            if (now - oldest.enqueued >= agingNanos && (overdue == null || oldest.enqueued < overdue.oldest().enqueued)) {
+                overdue = lane;
+            }
+            if (next == null || lane.pass < next.pass) {
+                next = lane;
+            }
+        }
+        if (overdue != null) {
+            overdue.aged.inc();
+            overdue.pass += overdue.stride; // still counts against the lane's share
+            return dispatched(overdue, overdue.takeOldest(), now);
+        }
+        if (next == null) {
+            return null;
+        }
+        virtualTime = next.pass;
+        next.pass += next.stride;
+        return dispatched(next, next.nextInTurn(), now);
+    }
+
+    private static Task dispatched(LaneQueue lane, Task task, long now) {
+        lane.waitTime.observeNanos(now - task.enqueued);
+        return task;
+    }
+}
@@ -0,0 +1,206 @@
+package com.ism;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces hybrid jobs into one mpirun invocation, so a burst of small files pays the MPI
+ * launch and TCP wire-up once instead of once per file.
+ *
+ * A batch is closed when its window has elapsed since the first job arrived, or when it reaches
+ * the byte or job budget. Batches of more than one job are written to a manifest (one tab-separated
+ * job per line) and run with {@code hybrid --manifest}, which reports a RESULT line per job, so
+ * every caller gets its own outcome. Batches run one at a time on the batcher thread. With a
+ * window of 0 every job runs on its caller's thread with its own mpirun, as before.
+ */
+final class HybridBatcher {
+
+    record Job(String fileName, String operation, String mode, String keyLength, String key, String iv, long size) {
+
+        /**
+         * The job as hybrid reads it from a manifest or a worker: tab-separated fields, "-" for no IV.
+         */
+        String manifestLine() {
+            boolean withIv = !"ecb".equalsIgnoreCase(mode) && iv != null && !iv.isEmpty();
+            return String.join("\t", fileName, operation, mode, keyLength, key, withIv ? iv : "-");
+        }
+
+        /**
+         * Fields are tab separated and one job per line, so they may contain neither.
+         */
+        boolean lineSafe() {
+            for (String field : new String[]{fileName, operation, mode, keyLength, key, iv}) {
+                if (field != null && (field.indexOf('\t') >= 0 || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0)) {
+                    return false;
+                }
+            }
+            return !key.isEmpty();
+        }
+    }
+
+    private record Pending(Job job, CompletableFuture<Void> done) {
+    }
+
+    private final Path workDir;
+    private final long windowNanos;
+    private final long maxBytes;
+    private final int maxJobs;
+    private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+    private final AtomicLong batchIds = new AtomicLong();
+
+    HybridBatcher(Path workDir, long windowMs, long maxBytes, int maxJobs) {
+        this.workDir = workDir;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        this.maxBytes = maxBytes;
+        this.maxJobs = maxJobs;
+
+        if (windowMs > 0) {
+            Thread collector = new Thread(this::collectLoop, "hybrid-batcher");
+            collector.setDaemon(true);
+            collector.start();
+        }
+    }
+
+    boolean batching() {
+        return windowNanos > 0;
+    }
+
+    /**
+     * Runs the job, batched with others when batching is on, and returns once its output exists.
+     */
+    void run(Job job) throws IOException, InterruptedException {
+        if (!batching() || !job.lineSafe()) {
+            runSingle(job);
+            return;
+        }
+        Pending entry = new Pending(job, new CompletableFuture<>());
+        pending.add(entry);
+        try {
+            entry.done.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Hybrid batch failed", e.getCause());
+        }
+    }
+
+    /**
+     * Runs the job on this node only, with its own mpirun and never batched.
+     */
+    void runLocal(Job job) throws IOException, InterruptedException {
+        runSingle(job, HybridLauncher.LOCAL);
+    }
+
+    private void collectLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                Pending first = pending.take();
+                batch.add(first);
+                long bytes = first.job.size();
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxJobs && bytes < maxBytes) {
+                    Pending next = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    bytes += next.job.size();
+                }
+                runBatch(batch);
+            } catch (InterruptedException e) {
+                batch.forEach(entry -> entry.done.completeExceptionally(e));
+                return;
+            } catch (Exception e) {
+                batch.forEach(entry -> entry.done.completeExceptionally(e));
+            }
+            batch.clear();
+        }
+    }
+
+    private void runBatch(List<Pending> batch) throws IOException, InterruptedException {
+        if (batch.size() == 1) {
+            runSingle(batch.get(0).job);
+            batch.get(0).done.complete(null);
+            return;
+        }
+
+        StringBuilder manifest = new StringBuilder();
+        for (Pending entry : batch) {
+            manifest.append(entry.job.manifestLine()).append('\n');
+        }
+
+        Path manifestFile = workDir.resolve("hybrid-batch-" + batchIds.incrementAndGet() + ".manifest");
+        Files.writeString(manifestFile, manifest, StandardCharsets.UTF_8);
+        System.out.printf("[hybrid] Running a batch of %d jobs from %s%n", batch.size(), manifestFile.getFileName());
+
+        int exitCode;
+        try {
+            long bytes = batch.stream().mapToLong(entry -> entry.job.size()).sum();
+            exitCode = HybridLauncher.run(workDir, NodeRegistry.place(bytes),
+                    List.of("--manifest", manifestFile.getFileName().toString()), line -> {
+                String[] result = line.split("\t");
+                if (result.length >= 3 && result[0].equals("RESULT")) {
+                    int index;
+                    try {
+                        index = Integer.parseInt(result[1]);
+                    } catch (NumberFormatException e) {
+                        System.err.println("[WARN] Ignoring malformed hybrid result line: " + line);
+                        return; // e.g. interleaved with another rank's output; the job fails with the batch
+                    }
+                    if (index >= 0 && index < batch.size()) {
+                        Pending entry = batch.get(index);
+                        if ("ok".equals(result[2])) {
+                            entry.done.complete(null);
+                        } else {
+                            entry.done.completeExceptionally(
+                                    new IOException("Hybrid program failed for " + entry.job.fileName()));
+                        }
+                    }
+                } else {
+                    System.out.println("[hybrid] " + line);
+                }
+            });
+        } finally {
+            Files.deleteIfExists(manifestFile);
+        }
+
+        System.out.println("Hybrid batch exited with code " + exitCode);
+        for (Pending entry : batch) {
+            entry.done.completeExceptionally(
+                    new IOException("Hybrid batch exited with code " + exitCode + " before processing " + entry.job.fileName()));
+        }
+    }
+
+    private void runSingle(Job job) throws IOException, InterruptedException {
+        runSingle(job, NodeRegistry.place(job.size()));
+    }
+
+    private void runSingle(Job job, HybridLauncher.Topology topology) throws IOException, InterruptedException {
+        System.out.printf("[hybrid] Running %s on %s (%d ranks)%n", job.fileName(), topology.hosts(), topology.ranks());
+        int exitCode = HybridLauncher.run(workDir, topology, List.of(
+                "--file", job.fileName(),
+                "--operation", job.operation(),
+                "--mode", job.mode(),
+                "--key", job.key(),
+                "--iv", job.iv(),
+                "--keylen", job.keyLength()
+        ), line -> System.out.println("[hybrid] " + line));
+
+        System.out.println("Hybrid program exited with code " + exitCode);
+        if (exitCode != 0) {
+            throw new IOException("Hybrid program failed with exit code " + exitCode);
+        }
+    }
+}
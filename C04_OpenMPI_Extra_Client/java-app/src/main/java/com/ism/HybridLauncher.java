@@ -0,0 +1,78 @@
+package com.ism;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Starts the MPI hybrid program through mpirun and streams its combined output line by line.
+ */
+final class HybridLauncher {
+
+    private static final String HYBRID_BINARY = "/home/mpiuser/data/hybrid";
+
+    /**
+     * Where hybrid runs: an mpirun host list ("host:slots,...") and the number of ranks.
+     */
+    record Topology(String hosts, int ranks) {
+        static Topology of(String hosts) {
+            int ranks = 0;
+            for (String host : hosts.split(",")) {
+                int colon = host.lastIndexOf(':');
+                ranks += colon < 0 ? 1 : Integer.parseInt(host.substring(colon + 1).trim());
+            }
+            return new Topology(hosts, ranks);
+        }
+    }
+
+    // Every MPI node, one rank each by default; NodeRegistry places runs from the nodes' load and falls back to this
+    static final Topology CLUSTER = Topology.of(
+            System.getenv().getOrDefault("MPI_HOSTS", "c04-mpi-node:1,c03-jms-consumer:1"));
+    // A single rank on this node: OpenMP threads only, no inter-node traffic
+    static final Topology LOCAL = Topology.of(System.getenv().getOrDefault("HYBRID_LOCAL_HOST", "localhost:1"));
+
+    private HybridLauncher() {
+    }
+
+    /**
+     * Runs {@code hybrid <args>} on {@code topology} with {@code workDir} as working directory and
+     * returns its exit code.
+     */
+    static int run(Path workDir, Topology topology, List<String> args, Consumer<String> output)
+            throws IOException, InterruptedException {
+        Process process = start(workDir, topology, args);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.accept(line);
+            }
+        }
+        return process.waitFor();
+    }
+
+    /**
+     * Starts {@code hybrid <args>} and returns the mpirun process; stdin is forwarded to rank 0
+     * and stderr is merged into stdout.
+     */
+    static Process start(Path workDir, Topology topology, List<String> args) throws IOException {
+        List<String> command = new ArrayList<>(List.of(
+                "mpirun",
+                "--mca", "plm", "isolated",
+                "--mca", "btl", "tcp,self",
+                "--host", topology.hosts(),
+                "-np", String.valueOf(topology.ranks()),
+                "--oversubscribe",
+                HYBRID_BINARY));
+        command.addAll(args);
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.directory(workDir.toFile());
+        pb.redirectErrorStream(true);
+
+        return pb.start();
+    }
+}
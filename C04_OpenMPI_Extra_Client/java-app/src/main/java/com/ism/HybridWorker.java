@@ -0,0 +1,210 @@
+package com.ism;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps one hybrid MPI world running ({@code hybrid --serve}) and feeds it jobs over mpirun's
+ * stdin, so a job costs its cipher and I/O time instead of an mpirun launch and TCP wire-up.
+ *
+ * Jobs are written one per line as "JOB &lt;id&gt; &lt;manifest fields&gt;"; the worker runs them in
+ * arrival order, announcing each with "START &lt;id&gt;" and answering it with "RESULT &lt;id&gt; ok|error".
+ * A supervisor thread owns the process: when it exits, every job still in flight fails and a new
+ * world is started after a backoff. The job timeout counts from START, so time spent queued behind
+ * other jobs does not count; a running job that gets no answer within it kills the world, which
+ * triggers the same restart.
+ */
+final class HybridWorker {
+
+    private static final long MIN_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 30_000;
+    // A world that stayed up this long is considered healthy again, resetting the backoff
+    private static final long STABLE_MS = 60_000;
+
+    private static final Metrics.Counter RESTARTS =
+            Metrics.counter("hybrid_worker_restarts_total", "Warm hybrid worker processes that exited and were restarted");
+
+    private final Path workDir;
+    private final long jobTimeoutMs;
+    private final Map<Long, Pending> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong jobIds = new AtomicLong();
+
+    private Process process;
+    private Writer stdin;
+    private volatile boolean closed;
+
+    HybridWorker(Path workDir, long jobTimeoutMs) {
+        this.workDir = workDir;
+        this.jobTimeoutMs = jobTimeoutMs;
+
+        Thread supervisor = new Thread(this::superviseLoop, "hybrid-worker-supervisor");
+        supervisor.setDaemon(true);
+        supervisor.start();
+    }
+
+    /**
+     * Runs the job on the warm world and returns once its output exists. The job's fields must be
+     * {@link HybridBatcher.Job#lineSafe() line safe}.
+     */
+    void run(HybridBatcher.Job job) throws IOException, InterruptedException {
+        long id = jobIds.incrementAndGet();
+        Pending pending = new Pending();
+        inFlight.put(id, pending);
+        try {
+            send("JOB\t" + id + "\t" + job.manifestLine());
+            // Queued behind other jobs: each of them has its own timeout, and a world that exits
+            // fails this one too, so the wait for START ends either way
+            CompletableFuture.anyOf(pending.started, pending.done).get();
+            pending.done.get(jobTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage() + " (" + job.fileName() + ")", e.getCause());
+        } catch (TimeoutException e) {
+            System.err.printf("[WARN] Hybrid worker gave no result for %s within %d ms, restarting it%n",
+                    job.fileName(), jobTimeoutMs);
+            kill();
+            throw new IOException("Hybrid worker timed out on " + job.fileName());
+        } finally {
+            inFlight.remove(id);
+        }
+    }
+
+    /**
+     * Asks the world to finish its queued jobs and exit; it is not restarted afterwards.
+     */
+    void close() {
+        closed = true;
+        try {
+            send("QUIT");
+        } catch (IOException | InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Writes one line to the current world, waiting up to the job timeout while it is (re)starting.
+     */
+    private synchronized void send(String line) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + jobTimeoutMs;
+        while (stdin == null) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (closed || remaining <= 0) {
+                throw new IOException("Hybrid worker is not running");
+            }
+            wait(remaining);
+        }
+        stdin.write(line);
+        stdin.write('\n');
+        stdin.flush();
+    }
+
+    private synchronized void kill() {
+        if (process != null) {
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+        }
+    }
+
+    private void superviseLoop() {
+        long backoffMs = MIN_BACKOFF_MS;
+        while (!closed) {
+            long startedAt = System.currentTimeMillis();
+            int exitCode = -1;
+            try {
+                // Every usable node at (re)start; the world keeps that size until it restarts
+                Process started = HybridLauncher.start(workDir, NodeRegistry.place(Long.MAX_VALUE), List.of("--serve"));
+                synchronized (this) {
+                    process = started;
+                    stdin = new OutputStreamWriter(started.getOutputStream(), StandardCharsets.UTF_8);
+                    notifyAll();
+                }
+                System.out.println("[INFO] Hybrid worker started");
+                readResults(started);
+                exitCode = started.waitFor();
+            } catch (IOException e) {
+                System.err.println("[ERROR] Could not start the hybrid worker: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                synchronized (this) {
+                    process = null;
+                    stdin = null;
+                }
+            }
+
+            IOException failure = new IOException("Hybrid worker exited with code " + exitCode);
+            inFlight.values().forEach(pending -> pending.done.completeExceptionally(failure));
+            if (closed) {
+                return;
+            }
+
+            RESTARTS.inc();
+            backoffMs = System.currentTimeMillis() - startedAt > STABLE_MS ? MIN_BACKOFF_MS : backoffMs;
+            System.err.printf("[WARN] Hybrid worker exited with code %d, restarting in %d ms%n", exitCode, backoffMs);
+            try {
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    private void readResults(Process started) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(started.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] result = line.split("\t");
+                if (result.length >= 2 && result[0].equals("START")) {
+                    Pending pending = pending(line, result[1]);
+                    if (pending != null) {
+                        pending.started.complete(null);
+                    }
+                } else if (result.length >= 3 && result[0].equals("RESULT")) {
+                    Pending pending = pending(line, result[1]);
+                    if (pending == null) {
+                        continue; // the caller already gave up on it, or the line is garbled
+                    }
+                    if ("ok".equals(result[2])) {
+                        pending.done.complete(null);
+                    } else {
+                        pending.done.completeExceptionally(new IOException("Hybrid program failed"));
+                    }
+                } else {
+                    System.out.println("[hybrid] " + line);
+                }
+            }
+        }
+    }
+
+    /**
+     * The job a START or RESULT line is about; null for a line whose ID does not parse, which is
+     * logged instead of ending the reader and with it the supervisor.
+     */
+    private Pending pending(String line, String id) {
+        try {
+            return inFlight.get(Long.parseLong(id));
+        } catch (NumberFormatException e) {
+            System.err.println("[WARN] Ignoring malformed hybrid worker line: " + line);
+            return null;
+        }
+    }
+
+    private static final class Pending {
+        private final CompletableFuture<Void> started = new CompletableFuture<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+    }
+}
@@ -0,0 +1,608 @@
+package com.ism;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * In-process AES engine used instead of spawning mpirun for jobs that are too small to
+ * amortize the MPI start-up cost. Produces the same output files as hybrid.c: PKCS#7
+ * padding for ECB and CBC, "<name>.out" when encrypting and the ".out" suffix stripped when
+ * decrypting.
+ *
+ * ECB, CTR (both directions) and CBC decryption are split into block-aligned chunks that run
+ * on a dedicated fork-join pool; a CTR chunk starts at its own counter. CBC encryption is
+ * inherently sequential and runs as a single pass. GCM output is a sequence of independently
+ * sealed CHUNK_SIZE chunks, each followed by its tag; the chunk nonce is the IV's first 12 bytes
+ * with the chunk index XORed into the last 8, and the AAD is the index plus a last-chunk flag,
+ * so chunks cannot be reordered or dropped. Both directions run chunks in parallel.
+ *
+ * Like hybrid.c, the file is processed SEGMENT_SIZE input bytes at a time through memory-mapped
+ * regions of the input and output, so neither the heap nor int offsets limit the file size. The
+ * output is written to "<name>.part" and moved into place once complete.
+ *
+ * Callers can follow a job through a progress listener, told each PROGRESS_STEP percent of the
+ * input that has been processed, and make it resumable with a {@link Checkpoint}: every segment but
+ * the last is forced to disk and reported, and a later run of the same job continues in the
+ * ".part" file after the segments an interrupted run reported.
+ *
+ * Inputs that came inside the job message are ciphered from and into heap buffers instead, with
+ * the same chunking and output format.
+ */
+public final class JavaAesEngine {
+
+    private static final int AES_BLOCK_SIZE = 16;
+    private static final int CHUNK_SIZE = 1 << 20; // 1 MiB, a multiple of AES_BLOCK_SIZE; GCM_CHUNK_SIZE in hybrid.c
+    private static final long SEGMENT_SIZE = 64L << 20; // SEGMENT_SIZE in hybrid.c
+    private static final int GCM_TAG_SIZE = 16;
+    private static final int GCM_NONCE_SIZE = 12;
+    private static final int PROGRESS_STEP = 10;
+
+    private enum Mode { ECB, CBC, CTR, GCM }
+
+    private static final ForkJoinPool pool = new ForkJoinPool(Integer.parseInt(
+            System.getenv().getOrDefault("JAVA_ENGINE_THREADS",
+                    String.valueOf(Runtime.getRuntime().availableProcessors()))));
+
+    private JavaAesEngine() {
+    }
+
+    /**
+     * Where a job's earlier, interrupted run stopped, and where this run reports its progress.
+     */
+    public interface Checkpoint {
+
+        Checkpoint NONE = new Checkpoint() {
+            @Override
+            public long resumeOffset() {
+                return 0;
+            }
+
+            @Override
+            public void segmentDone(long from, long to) {
+            }
+        };
+
+        /**
+         * Input bytes already processed into the ".part" output by an earlier run, 0 to start over.
+         * Anything that is not the end of a segment reported by {@link #segmentDone} also starts over.
+         */
+        long resumeOffset();
+
+        /**
+         * Input bytes [from, to) are processed and their output is on disk.
+         */
+        void segmentDone(long from, long to) throws IOException;
+    }
+
+    /**
+     * Encrypts or decrypts {@code dir/fileName} and writes the result next to it.
+     *
+     * @return the path of the output file
+     */
+    public static Path process(Path dir, String fileName, String aesKey, int keyLengthBits, String ivHex,
+                               String mode, String operation) throws IOException, GeneralSecurityException {
+        return process(dir, fileName, aesKey, keyLengthBits, ivHex, mode, operation, percent -> {
+        });
+    }
+
+    /**
+     * Like {@link #process(Path, String, String, int, String, String, String)}, calling {@code progress}
+     * from the pool's threads with the percentage done, in PROGRESS_STEP steps up to 100.
+     */
+    public static Path process(Path dir, String fileName, String aesKey, int keyLengthBits, String ivHex,
+                               String mode, String operation, IntConsumer progress)
+            throws IOException, GeneralSecurityException {
+        return process(dir, fileName, aesKey, keyLengthBits, ivHex, mode, operation, progress, Checkpoint.NONE);
+    }
+
+    /**
+     * Like {@link #process(Path, String, String, int, String, String, String, IntConsumer)}, resuming
+     * from and reporting to {@code checkpoint}.
+     */
+    public static Path process(Path dir, String fileName, String aesKey, int keyLengthBits, String ivHex,
+                               String mode, String operation, IntConsumer progress, Checkpoint checkpoint)
+            throws IOException, GeneralSecurityException {
+        boolean encrypt = encrypting(operation);
+        Mode cipherMode = cipherMode(mode);
+        SecretKeySpec key = secretKey(aesKey, keyLengthBits);
+        byte[] iv = iv(cipherMode, ivHex);
+
+        Path outputPath = dir.resolve(encrypt ? fileName + ".out" : decryptedFileName(fileName));
+        Path partPath = outputPath.resolveSibling(outputPath.getFileName() + ".part");
+        Progress done;
+        try (FileChannel in = FileChannel.open(dir.resolve(fileName), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(partPath, StandardOpenOption.CREATE,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Layout layout = new Layout(cipherMode, encrypt, in.size());
+            done = new Progress(layout.fileSize, progress);
+            long segmentUnits = SEGMENT_SIZE / layout.unitIn;
+            long start = resumeUnit(layout, segmentUnits, checkpoint.resumeOffset(), out.size());
+            if (start == 0) {
+                out.truncate(0);
+            } else {
+                done.add(layout.inBytes(0, start));
+            }
+
+            // CBC encryption chains every block to the previous one: one Cipher across all segments,
+            // continuing from the last ciphertext block already written when resuming
+            Cipher sequential = null;
+            if (cipherMode == Mode.CBC && encrypt) {
+                sequential = Cipher.getInstance("AES/CBC/NoPadding");
+                sequential.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(
+                        start == 0 ? iv : readBlock(out, layout.outBytes(0, start) - AES_BLOCK_SIZE)));
+            }
+            int direction = encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE;
+            byte[] nonce = cipherMode == Mode.GCM ? Arrays.copyOf(iv, GCM_NONCE_SIZE) : null;
+
+            for (long first = start; first < layout.units; first += segmentUnits) {
+                long count = Math.min(segmentUnits, layout.units - first);
+                long inOffset = layout.inBytes(0, first);
+                int inLength = (int) layout.inBytes(first, count);
+                ByteBuffer input = in.map(FileChannel.MapMode.READ_ONLY, inOffset,
+                        Math.min(inLength, layout.fileSize - inOffset));
+                if (input.remaining() < inLength) {
+                    // The padding is not in the file: the last segment is ciphered from a padded copy
+                    ByteBuffer padded = ByteBuffer.allocate(inLength).put(input);
+                    while (padded.hasRemaining()) {
+                        padded.put((byte) layout.padLength);
+                    }
+                    input = padded.flip();
+                }
+                MappedByteBuffer output = out.map(FileChannel.MapMode.READ_WRITE, layout.outBytes(0, first),
+                        layout.outBytes(first, count));
+
+                if (cipherMode == Mode.GCM) {
+                    pool.invoke(new GcmTask(input, output, 0, (int) count, first, layout.units, key, nonce, encrypt,
+                            layout.unitIn, layout.unitOut, done));
+                } else if (sequential != null) {
+                    // Still one pass, fed a chunk at a time so progress can be reported
+                    for (int offset = 0; offset < inLength; offset += CHUNK_SIZE) {
+                        int length = Math.min(CHUNK_SIZE, inLength - offset);
+                        sequential.update(input.slice(offset, length), output.slice(offset, length));
+                        done.add(length);
+                    }
+                } else {
+                    byte[] chain = cipherMode == Mode.CBC ? chainBefore(in, inOffset, iv) : iv;
+                    pool.invoke(new ChunkTask(input, output, 0, inLength, first, key, chain, cipherMode, direction,
+                            done));
+                }
+                if (first + count < layout.units && checkpoint != Checkpoint.NONE) {
+                    output.force();
+                    checkpoint.segmentDone(inOffset, inOffset + inLength);
+                }
+            }
+
+            long outputLength = layout.outBytes(0, layout.units);
+            if (!encrypt && layout.padded) {
+                int padLength = outputLength < AES_BLOCK_SIZE ? -1 : pkcs7PadLength(out, outputLength);
+                if (padLength < 0) {
+                    throw new IllegalArgumentException("Invalid PKCS#7 padding");
+                }
+                out.truncate(outputLength - padLength);
+            }
+        } catch (Exception e) {
+            Files.deleteIfExists(partPath);
+            throw e;
+        }
+        Files.move(partPath, outputPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        done.finish();
+        return outputPath;
+    }
+
+    /**
+     * Encrypts or decrypts {@code input} in memory, with the same output as
+     * {@link #process(Path, String, String, int, String, String, String)} would write for it.
+     * Meant for small inputs: input and output are both held on the heap.
+     */
+    public static byte[] process(byte[] input, String aesKey, int keyLengthBits, String ivHex, String mode,
+                                 String operation) throws GeneralSecurityException {
+        boolean encrypt = encrypting(operation);
+        Mode cipherMode = cipherMode(mode);
+        SecretKeySpec key = secretKey(aesKey, keyLengthBits);
+        byte[] iv = iv(cipherMode, ivHex);
+
+        Layout layout = new Layout(cipherMode, encrypt, input.length);
+        ByteBuffer in = ByteBuffer.allocate((int) layout.dataSize).put(input);
+        while (in.hasRemaining()) {
+            in.put((byte) layout.padLength);
+        }
+        in.flip();
+        ByteBuffer out = ByteBuffer.allocate((int) layout.outBytes(0, layout.units));
+        Progress done = new Progress(layout.fileSize, percent -> {
+        });
+
+        if (cipherMode == Mode.GCM) {
+            pool.invoke(new GcmTask(in, out, 0, (int) layout.units, 0, layout.units, key,
+                    Arrays.copyOf(iv, GCM_NONCE_SIZE), encrypt, layout.unitIn, layout.unitOut, done));
+        } else if (cipherMode == Mode.CBC && encrypt) {
+            Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+            cipher.doFinal(in, out);
+        } else {
+            pool.invoke(new ChunkTask(in, out, 0, in.limit(), 0, key, iv, cipherMode,
+                    encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, done));
+        }
+
+        byte[] output = out.array();
+        if (!encrypt && layout.padded) {
+            int padLength = pkcs7PadLength(Arrays.copyOfRange(output, output.length - AES_BLOCK_SIZE, output.length));
+            if (padLength < 0) {
+                throw new IllegalArgumentException("Invalid PKCS#7 padding");
+            }
+            return Arrays.copyOf(output, output.length - padLength);
+        }
+        return output;
+    }
+
+    private static boolean encrypting(String operation) {
+        if ("encrypt".equalsIgnoreCase(operation)) {
+            return true;
+        } else if ("decrypt".equalsIgnoreCase(operation)) {
+            return false;
+        }
+        throw new IllegalArgumentException("Unsupported operation: " + operation);
+    }
+
+    private static Mode cipherMode(String mode) {
+        try {
+            return Mode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported AES mode: " + mode);
+        }
+    }
+
+    private static SecretKeySpec secretKey(String aesKey, int keyLengthBits) {
+        byte[] keyBytes = aesKey.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length != keyLengthBits / 8) {
+            throw new IllegalArgumentException("Invalid key length");
+        }
+        return new SecretKeySpec(keyBytes, "AES");
+    }
+
+    private static byte[] iv(Mode cipherMode, String ivHex) {
+        byte[] iv = cipherMode == Mode.ECB ? null : hexToBytes(ivHex);
+        if (iv != null && iv.length != AES_BLOCK_SIZE && !(cipherMode == Mode.GCM && iv.length == GCM_NONCE_SIZE)) {
+            throw new IllegalArgumentException("IV must be 32 hex characters (16 bytes) in " + cipherMode + " mode");
+        }
+        return iv;
+    }
+
+    /**
+     * The unit to start from: the end of the segments an earlier run reported, if {@code offset}
+     * is one and the ".part" file of {@code partSize} bytes holds their output, otherwise 0.
+     */
+    private static long resumeUnit(Layout layout, long segmentUnits, long offset, long partSize) {
+        if (offset <= 0 || offset % layout.unitIn != 0) {
+            return 0;
+        }
+        long unit = offset / layout.unitIn;
+        boolean valid = unit % segmentUnits == 0 && unit < layout.units && partSize >= layout.outBytes(0, unit);
+        return valid ? unit : 0;
+    }
+
+    /**
+     * How a job's input divides into units, as in hybrid.c: AES blocks for ECB, CBC and CTR,
+     * CHUNK_SIZE plaintext bytes (plus the tag) for GCM. Encryption in ECB and CBC appends the
+     * PKCS#7 padding after the file's last byte.
+     */
+    private static final class Layout {
+        final long fileSize;
+        final boolean padded;
+        final int padLength;
+        final long dataSize;
+        final int unitIn;
+        final int unitOut;
+        final long units;
+
+        Layout(Mode mode, boolean encrypt, long fileSize) {
+            this.fileSize = fileSize;
+            padded = mode == Mode.ECB || mode == Mode.CBC;
+            if (padded && !encrypt && (fileSize == 0 || fileSize % AES_BLOCK_SIZE != 0)) {
+                throw new IllegalArgumentException("Data size must be multiple of AES block size for decryption");
+            }
+            padLength = padded && encrypt ? AES_BLOCK_SIZE - (int) (fileSize % AES_BLOCK_SIZE) : 0;
+            dataSize = fileSize + padLength;
+            if (mode == Mode.GCM) {
+                unitIn = encrypt ? CHUNK_SIZE : CHUNK_SIZE + GCM_TAG_SIZE;
+                unitOut = encrypt ? CHUNK_SIZE + GCM_TAG_SIZE : CHUNK_SIZE;
+                units = fileSize == 0 ? 1 : (fileSize + unitIn - 1) / unitIn;
+                if (!encrypt && inBytes(units - 1, 1) < GCM_TAG_SIZE) {
+                    throw new IllegalArgumentException("Truncated GCM input");
+                }
+            } else {
+                unitIn = unitOut = AES_BLOCK_SIZE;
+                units = (dataSize + AES_BLOCK_SIZE - 1) / AES_BLOCK_SIZE; // CTR keeps a partial last block
+            }
+        }
+
+        /** Input bytes of units [first, first + count). */
+        long inBytes(long first, long count) {
+            long start = first * unitIn;
+            long end = Math.min((first + count) * unitIn, dataSize);
+            return Math.max(0, end - start);
+        }
+
+        /** Output bytes of units [first, first + count). */
+        long outBytes(long first, long count) {
+            long bytes = inBytes(first, count);
+            return unitIn == unitOut ? bytes : bytes + count * (unitOut - unitIn);
+        }
+    }
+
+    /**
+     * The CBC chaining value of the block at {@code offset}: the IV, or the ciphertext block before it.
+     */
+    private static byte[] chainBefore(FileChannel in, long offset, byte[] iv) throws IOException {
+        return offset == 0 ? iv : readBlock(in, offset - AES_BLOCK_SIZE);
+    }
+
+    private static byte[] readBlock(FileChannel channel, long position) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(AES_BLOCK_SIZE);
+        while (block.hasRemaining()) {
+            if (channel.read(block, position + block.position()) < 0) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+        }
+        return block.array();
+    }
+
+    /**
+     * The CTR counter block of AES block number {@code block}: the IV plus block as a 128-bit
+     * big-endian number, as OpenSSL increments it.
+     */
+    private static byte[] counterAt(byte[] iv, long block) {
+        byte[] counter = iv.clone();
+        long carry = block;
+        for (int i = counter.length - 1; i >= 0 && carry != 0; i--) {
+            carry += counter[i] & 0xff;
+            counter[i] = (byte) carry;
+            carry >>>= 8;
+        }
+        return counter;
+    }
+
+    /**
+     * Mirrors get_decrypted_filename in hybrid.c: strips a trailing ".out" if present.
+     */
+    static String decryptedFileName(String fileName) {
+        if (fileName.length() > 4 && fileName.endsWith(".out")) {
+            return fileName.substring(0, fileName.length() - 4);
+        }
+        return fileName;
+    }
+
+    /**
+     * Padding length of the block ending at {@code length}, or -1 if the padding is invalid.
+     */
+    private static int pkcs7PadLength(FileChannel out, long length) throws IOException {
+        return pkcs7PadLength(readBlock(out, length - AES_BLOCK_SIZE));
+    }
+
+    private static int pkcs7PadLength(byte[] block) {
+        int padLen = block[AES_BLOCK_SIZE - 1] & 0xff;
+        if (padLen == 0 || padLen > AES_BLOCK_SIZE) {
+            return -1;
+        }
+        for (int i = 0; i < padLen; i++) {
+            if ((block[AES_BLOCK_SIZE - 1 - i] & 0xff) != padLen) {
+                return -1;
+            }
+        }
+        return padLen;
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        if (hex == null || hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Invalid hex string for IV");
+        }
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(hex, 2 * i, 2 * i + 2, 16);
+        }
+        return out;
+    }
+
+    /**
+     * Splits [from, to) of a segment into CHUNK_SIZE pieces. Each leaf gets its own Cipher; for
+     * CBC decryption the chunk IV is the ciphertext block that precedes it ({@code chain} for the
+     * segment's first chunk), for CTR the counter of its first block, counted from the start of
+     * the file ({@code firstBlock} is the segment's).
+     */
+    private static final class ChunkTask extends RecursiveAction {
+        // Fork-join tasks are never serialized; RecursiveAction only happens to be Serializable
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient ByteBuffer in;
+        private final transient ByteBuffer out;
+        private final int from;
+        private final int to;
+        private final long firstBlock;
+        private final SecretKeySpec key;
+        private final byte[] chain;
+        private final Mode mode;
+        private final int cipherMode;
+        private final transient Progress done;
+
+        ChunkTask(ByteBuffer in, ByteBuffer out, int from, int to, long firstBlock, SecretKeySpec key, byte[] chain,
+                  Mode mode, int cipherMode, Progress done) {
+            this.in = in;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+            this.firstBlock = firstBlock;
+            this.key = key;
+            this.chain = chain;
+            this.mode = mode;
+            this.cipherMode = cipherMode;
+            this.done = done;
+        }
+
+        @Override
+        protected void compute() {
+            int length = to - from;
+            if (length > CHUNK_SIZE) {
+                int mid = from + Math.max(1, length / CHUNK_SIZE / 2) * CHUNK_SIZE;
+                invokeAll(new ChunkTask(in, out, from, mid, firstBlock, key, chain, mode, cipherMode, done),
+                        new ChunkTask(in, out, mid, to, firstBlock, key, chain, mode, cipherMode, done));
+                return;
+            }
+
+            try {
+                Cipher cipher;
+                if (mode == Mode.ECB) {
+                    cipher = Cipher.getInstance("AES/ECB/NoPadding");
+                    cipher.init(cipherMode, key);
+                } else if (mode == Mode.CTR) {
+                    cipher = Cipher.getInstance("AES/CTR/NoPadding");
+                    cipher.init(cipherMode, key,
+                            new IvParameterSpec(counterAt(chain, firstBlock + from / AES_BLOCK_SIZE)));
+                } else {
+                    byte[] chunkIv = chain;
+                    if (from > 0) {
+                        chunkIv = new byte[AES_BLOCK_SIZE];
+                        in.get(from - AES_BLOCK_SIZE, chunkIv);
+                    }
+                    cipher = Cipher.getInstance("AES/CBC/NoPadding");
+                    cipher.init(cipherMode, key, new IvParameterSpec(chunkIv));
+                }
+                cipher.doFinal(in.slice(from, length), out.slice(from, length));
+                done.add(length);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES chunk failed at block " + (firstBlock + from / AES_BLOCK_SIZE), e);
+            }
+        }
+    }
+
+    /**
+     * Seals or opens GCM chunks [first, last) of a segment whose first chunk has index {@code base}
+     * of {@code total}, one Cipher per chunk.
+     */
+    private static final class GcmTask extends RecursiveAction {
+        // Fork-join tasks are never serialized; RecursiveAction only happens to be Serializable
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient ByteBuffer in;
+        private final transient ByteBuffer out;
+        private final int first;
+        private final int last;
+        private final long base;
+        private final long total;
+        private final SecretKeySpec key;
+        private final byte[] nonce;
+        private final boolean encrypt;
+        private final int unitIn;
+        private final int unitOut;
+        private final transient Progress done;
+
+        GcmTask(ByteBuffer in, ByteBuffer out, int first, int last, long base, long total, SecretKeySpec key,
+                byte[] nonce, boolean encrypt, int unitIn, int unitOut, Progress done) {
+            this.in = in;
+            this.out = out;
+            this.first = first;
+            this.last = last;
+            this.base = base;
+            this.total = total;
+            this.key = key;
+            this.nonce = nonce;
+            this.encrypt = encrypt;
+            this.unitIn = unitIn;
+            this.unitOut = unitOut;
+            this.done = done;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first > 1) {
+                int mid = (first + last) >>> 1;
+                invokeAll(new GcmTask(in, out, first, mid, base, total, key, nonce, encrypt, unitIn, unitOut, done),
+                        new GcmTask(in, out, mid, last, base, total, key, nonce, encrypt, unitIn, unitOut, done));
+                return;
+            }
+
+            long index = base + first;
+            int offset = first * unitIn;
+            int length = Math.min(unitIn, in.limit() - offset);
+            int outLength = length + unitOut - unitIn;
+
+            byte[] chunkNonce = nonce.clone();
+            ByteBuffer aad = ByteBuffer.allocate(9).putLong(index).put((byte) (index == total - 1 ? 1 : 0));
+            for (int i = 0; i < 8; i++) {
+                chunkNonce[GCM_NONCE_SIZE - 8 + i] ^= aad.get(i);
+            }
+            try {
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, key,
+                        new GCMParameterSpec(GCM_TAG_SIZE * 8, chunkNonce));
+                cipher.updateAAD(aad.array());
+                cipher.doFinal(in.slice(offset, length), out.slice(first * unitOut, outLength));
+                done.add(length);
+            } catch (AEADBadTagException e) {
+                throw new IllegalArgumentException("GCM authentication failed for chunk " + index, e);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES-GCM chunk " + index + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Sums the input bytes finished by the leaf tasks and tells the listener about each
+     * PROGRESS_STEP crossed, once.
+     */
+    private static final class Progress {
+        private final long total;
+        private final IntConsumer listener;
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicInteger reported = new AtomicInteger();
+
+        Progress(long total, IntConsumer listener) {
+            this.total = total;
+            this.listener = listener;
+        }
+
+        void add(long processed) {
+            if (total > 0) {
+                // 100 is left to finish(), once the output is in place; padding makes the processed
+                // bytes slightly exceed the input
+                int percent = (int) Math.min(100 - PROGRESS_STEP, bytes.addAndGet(processed) * 100 / total);
+                report(percent / PROGRESS_STEP * PROGRESS_STEP);
+            }
+        }
+
+        void finish() {
+            report(100);
+        }
+
+        private void report(int percent) {
+            int last = reported.get();
+            while (percent > last) {
+                if (reported.compareAndSet(last, percent)) {
+                    listener.accept(percent);
+                    return;
+                }
+                last = reported.get();
+            }
+        }
+    }
+}
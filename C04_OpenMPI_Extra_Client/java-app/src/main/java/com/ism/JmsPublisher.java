@@ -0,0 +1,426 @@
+package com.ism;
+
+import com.rabbitmq.jms.admin.RMQConnectionFactory;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived JMS publisher: one broker connection and a small pool of sessions, each caching
+ * one producer per destination, so a publish is a borrow/send/return instead of a full AMQP handshake.
+ *
+ * JMS sessions are single-threaded, so every session is used by one thread at a time. When the
+ * connection breaks (exception listener, or a send failing because it is closed) the whole pool
+ * is discarded and the next publish reconnects and retries. A message the broker or the factory
+ * rejects only closes the session it was built on and fails without a retry. With a non-zero linger, {@link #publishAsync} coalesces messages
+ * into transacted batches on a background thread.
+ */
+public final class JmsPublisher {
+
+    /**
+     * Creates the message to send on the session it will be sent with.
+     */
+    public interface MessageFactory {
+        Message create(Session session) throws JMSException;
+    }
+
+    /**
+     * A topic or queue by name; producers are cached per address.
+     */
+    public record Address(String name, boolean queue) {
+        public static Address topic(String name) {
+            return new Address(name, false);
+        }
+
+        public static Address queue(String name) {
+            return new Address(name, true);
+        }
+
+        Destination create(Session session) throws JMSException {
+            return queue ? session.createQueue(name) : session.createTopic(name);
+        }
+    }
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int MAX_BATCH = 100;
+
+    // Class name of a ConnectionFactory to use instead of RabbitMQ, e.g. the load test's in-process broker
+    private static final String CONNECTION_FACTORY = System.getenv().getOrDefault("JMS_CONNECTION_FACTORY", "");
+
+    private final String brokerUri;
+    private final int poolSize;
+    private final long lingerMs;
+
+    private final BlockingQueue<PooledSession> idle;
+    private final AtomicInteger created = new AtomicInteger();
+    private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+
+    private Connection connection;
+    private int generation;
+
+    public JmsPublisher(String brokerUri, int poolSize, long lingerMs) {
+        this.brokerUri = brokerUri;
+        this.poolSize = poolSize;
+        this.lingerMs = lingerMs;
+        this.idle = new ArrayBlockingQueue<>(poolSize);
+
+        if (lingerMs > 0) {
+            Thread flusher = new Thread(this::flushLoop, "jms-publisher-batch");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    /**
+     * Factory for broker connections: RabbitMQ at {@code brokerUri}, or a new instance of the
+     * JMS_CONNECTION_FACTORY class (public no-arg constructor) when that is set.
+     */
+    public static ConnectionFactory connectionFactory(String brokerUri) throws JMSException {
+        if (CONNECTION_FACTORY.isEmpty()) {
+            RMQConnectionFactory factory = new RMQConnectionFactory();
+            factory.setUri(brokerUri);
+            return factory;
+        }
+        try {
+            return (ConnectionFactory) Class.forName(CONNECTION_FACTORY).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            JMSException failure = new JMSException("Cannot create JMS connection factory " + CONNECTION_FACTORY);
+            failure.setLinkedException(e);
+            failure.initCause(e);
+            throw failure;
+        }
+    }
+
+    public void publish(String topicName, String text) throws JMSException {
+        publish(Address.topic(topicName), session -> session.createTextMessage(text));
+    }
+
+    public void publish(Address address, String text) throws JMSException {
+        publish(address, session -> session.createTextMessage(text));
+    }
+
+    public void publish(Address address, MessageFactory factory) throws JMSException {
+        long start = System.nanoTime();
+        JMSException last = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            PooledSession pooled = null;
+            try {
+                pooled = borrow();
+                pooled.producer(address).send(factory.create(pooled.session));
+                release(pooled);
+                pooled = null;
+                publishMetrics(address, "single").observeSince(start);
+                return;
+            } catch (JMSException e) {
+                last = e;
+                failureCounter(address).inc();
+                if (!connectionFailed(pooled, e)) {
+                    drop(pooled);
+                    System.err.printf("[WARN] JMS publish to %s failed: %s%n", address.name(), e.getMessage());
+                    throw e;
+                }
+                if (pooled != null) {
+                    discard(pooled);
+                }
+                System.err.printf("[WARN] JMS publish to %s failed (attempt %d/%d): %s%n",
+                        address.name(), attempt, MAX_ATTEMPTS, e.getMessage());
+                backoff(attempt);
+            } catch (RuntimeException e) {
+                // From the factory or the client library: give the session's slot back, or the pool shrinks for good
+                if (pooled != null) {
+                    drop(pooled);
+                }
+                throw e;
+            }
+        }
+        throw last;
+    }
+
+    /**
+     * Sends all messages to one destination in a single transaction: one commit instead of one
+     * round trip per message. Either all of them are published or none is.
+     */
+    public void publishBatch(Address address, List<MessageFactory> factories) throws JMSException {
+        if (factories.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        JMSException last = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            PooledSession pooled = null;
+            try {
+                pooled = borrow();
+                MessageProducer producer = pooled.transactedProducer(address);
+                for (MessageFactory factory : factories) {
+                    producer.send(factory.create(pooled.transacted));
+                }
+                pooled.transacted.commit();
+                release(pooled);
+                pooled = null;
+                publishMetrics(address, "batch").observeSince(start);
+                return;
+            } catch (JMSException e) {
+                last = e;
+                failureCounter(address).inc();
+                if (!connectionFailed(pooled, e)) {
+                    drop(pooled); // closing the session rolls the partial transaction back
+                    System.err.printf("[WARN] JMS batch publish of %d messages to %s failed: %s%n",
+                            factories.size(), address.name(), e.getMessage());
+                    throw e;
+                }
+                if (pooled != null) {
+                    discard(pooled);
+                }
+                System.err.printf("[WARN] JMS batch publish of %d messages to %s failed (attempt %d/%d): %s%n",
+                        factories.size(), address.name(), attempt, MAX_ATTEMPTS, e.getMessage());
+                backoff(attempt);
+            } catch (RuntimeException e) {
+                // From the factory or the client library: give the session's slot back, or the pool shrinks for good
+                if (pooled != null) {
+                    drop(pooled);
+                }
+                throw e;
+            }
+        }
+        throw last;
+    }
+
+    /**
+     * Publishes without waiting for the broker. With batching enabled the message is sent with
+     * the others queued within the linger window; otherwise it is published inline.
+     */
+    public CompletableFuture<Void> publishAsync(String topicName, String text) {
+        if (lingerMs <= 0) {
+            try {
+                publish(topicName, text);
+                return CompletableFuture.completedFuture(null);
+            } catch (JMSException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        Pending message = new Pending(topicName, text);
+        pending.add(message);
+        return message.done;
+    }
+
+    private void flushLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(pending.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+                while (batch.size() < MAX_BATCH) {
+                    Pending next = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            Map<String, List<Pending>> byTopic = new LinkedHashMap<>();
+            for (Pending message : batch) {
+                byTopic.computeIfAbsent(message.topicName, k -> new ArrayList<>()).add(message);
+            }
+            for (Map.Entry<String, List<Pending>> entry : byTopic.entrySet()) {
+                List<MessageFactory> factories = new ArrayList<>();
+                for (Pending message : entry.getValue()) {
+                    factories.add(session -> session.createTextMessage(message.text));
+                }
+                try {
+                    publishBatch(Address.topic(entry.getKey()), factories);
+                    entry.getValue().forEach(message -> message.done.complete(null));
+                } catch (JMSException e) {
+                    entry.getValue().forEach(message -> message.done.completeExceptionally(e));
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private static Metrics.Histogram publishMetrics(Address address, String kind) {
+        return Metrics.histogram("jms_publish_seconds", "Time to publish to the broker, retries included",
+                "destination", address.name(), "kind", kind);
+    }
+
+    private static Metrics.Counter failureCounter(Address address) {
+        return Metrics.counter("jms_publish_failures_total", "Failed JMS publish attempts", "destination", address.name());
+    }
+
+    private PooledSession borrow() throws JMSException {
+        while (true) {
+            PooledSession pooled = idle.poll();
+            if (pooled == null) {
+                if (created.incrementAndGet() <= poolSize) {
+                    try {
+                        return newSession();
+                    } catch (JMSException e) {
+                        created.decrementAndGet();
+                        throw e;
+                    }
+                }
+                created.decrementAndGet();
+                try {
+                    // Bounded wait: sessions discarded meanwhile free a slot for a new one
+                    pooled = idle.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new JMSException("Interrupted while waiting for a JMS session");
+                }
+                if (pooled == null) {
+                    continue;
+                }
+            }
+            if (pooled.generation == currentGeneration()) {
+                return pooled;
+            }
+            discard(pooled); // belongs to a connection that has since been replaced
+        }
+    }
+
+    private void release(PooledSession pooled) {
+        if (pooled.generation != currentGeneration() || !idle.offer(pooled)) {
+            discard(pooled);
+        }
+    }
+
+    /**
+     * Whether a failed publish means the connection is gone rather than that this one message was
+     * rejected: no session could be borrowed, the session reports itself closed, or the exception
+     * listener has replaced the connection meanwhile.
+     */
+    private boolean connectionFailed(PooledSession pooled, JMSException e) {
+        return pooled == null
+                || e instanceof javax.jms.IllegalStateException
+                || pooled.generation != currentGeneration();
+    }
+
+    /**
+     * Closes one session and frees its pool slot; the connection and the other sessions stay.
+     */
+    private void drop(PooledSession pooled) {
+        created.decrementAndGet();
+        pooled.closeQuietly();
+    }
+
+    private void discard(PooledSession pooled) {
+        drop(pooled);
+        invalidate(pooled.generation);
+    }
+
+    private synchronized int currentGeneration() {
+        return generation;
+    }
+
+    private synchronized PooledSession newSession() throws JMSException {
+        if (connection == null) {
+            Connection fresh = connectionFactory(brokerUri).createConnection();
+            int connectionGeneration = generation;
+            fresh.setExceptionListener(e -> {
+                System.err.println("[WARN] JMS publisher connection lost: " + e.getMessage());
+                invalidate(connectionGeneration);
+            });
+            fresh.start();
+            connection = fresh;
+        }
+        return new PooledSession(generation,
+                connection.createSession(false, Session.AUTO_ACKNOWLEDGE),
+                connection.createSession(true, Session.SESSION_TRANSACTED));
+    }
+
+    /**
+     * Drops the connection of the given generation; sessions created on it are closed as they
+     * come back to the pool and the next borrow opens a new connection.
+     */
+    private synchronized void invalidate(int failedGeneration) {
+        if (failedGeneration != generation || connection == null) {
+            return;
+        }
+        generation++;
+        try {
+            connection.close();
+        } catch (Exception ignored) {
+        }
+        connection = null;
+    }
+
+    private static void backoff(int attempt) {
+        try {
+            Thread.sleep(100L * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class PooledSession {
+        private final int generation;
+        private final Session session;
+        private final Session transacted;
+        private final Map<Address, MessageProducer> producers = new HashMap<>();
+        private final Map<Address, MessageProducer> transactedProducers = new HashMap<>();
+
+        PooledSession(int generation, Session session, Session transacted) {
+            this.generation = generation;
+            this.session = session;
+            this.transacted = transacted;
+        }
+
+        MessageProducer producer(Address address) throws JMSException {
+            MessageProducer producer = producers.get(address);
+            if (producer == null) {
+                producer = session.createProducer(address.create(session));
+                producers.put(address, producer);
+            }
+            return producer;
+        }
+
+        MessageProducer transactedProducer(Address address) throws JMSException {
+            MessageProducer producer = transactedProducers.get(address);
+            if (producer == null) {
+                producer = transacted.createProducer(address.create(transacted));
+                transactedProducers.put(address, producer);
+            }
+            return producer;
+        }
+
+        void closeQuietly() {
+            try {
+                session.close();
+            } catch (Exception ignored) {
+            }
+            try {
+                transacted.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    private static final class Pending {
+        private final String topicName;
+        private final String text;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(String topicName, String text) {
+            this.topicName = topicName;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.ism;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Local journal of the jobs in progress, so a job cut short by a consumer restart continues from
+ * its last completed stage instead of downloading and ciphering everything again.
+ *
+ * Each job has a file {@code <dir>/<id>.journal} of appended, synced lines: the job message first,
+ * then one line per completed stage (generated IV, download with its digest and size, IV stored by
+ * the middleware, compressed size, chosen cipher backend, cipher output, upload) and one per input
+ * byte range the Java engine has finished. The file is removed once the job is over, succeeded or failed, so one
+ * left behind belongs to a job the process did not finish. It holds the job's AES key, like the
+ * message it came from, so only its owner may read it.
+ */
+final class JobJournal {
+
+    static final String GENERATED_IV = "iv";
+    static final String DOWNLOADED = "downloaded";
+    static final String IV_STORED = "iv_stored";
+    static final String COMPRESSED = "compressed";
+    static final String BACKEND = "backend";
+    static final String CIPHERED = "ciphered";
+    static final String UPLOADED = "uploaded";
+
+    private static final String JOB = "job";
+    private static final String CHUNK = "chunk";
+    private static final String SUFFIX = ".journal";
+
+    private final Path file;
+    private final boolean resumed;
+    private final Map<String, String> stages = new HashMap<>();
+    private final TreeMap<Long, Long> chunks = new TreeMap<>(); // input byte ranges, from -> to
+
+    private JobJournal(Path file, boolean resumed) {
+        this.file = file;
+        this.resumed = resumed;
+    }
+
+    /**
+     * The journal of job {@code id}: the one an interrupted run left for the same message, or a new
+     * one. With no directory, or an ID that is not a plain file name, nothing is journaled.
+     */
+    static JobJournal open(Path dir, String id, String jobText) throws IOException {
+        if (dir == null || !id.matches("[A-Za-z0-9_-]{1,128}")) {
+            return new JobJournal(null, false);
+        }
+        Files.createDirectories(dir);
+        Path file = dir.resolve(id + SUFFIX);
+        String jobLine = JOB + " " + Base64.getEncoder().encodeToString(jobText.getBytes(StandardCharsets.UTF_8));
+
+        if (Files.exists(file)) {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (!lines.isEmpty() && lines.getFirst().equals(jobLine)) {
+                JobJournal journal = new JobJournal(file, true);
+                lines.subList(1, lines.size()).forEach(journal::replay);
+                return journal;
+            }
+            Files.delete(file); // left by another job under the same ID
+        }
+        JobJournal journal = new JobJournal(file, false);
+        try {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(file);
+        } catch (FileAlreadyExistsException e) {
+            return journal; // created meanwhile by a redelivery of the same job, which wrote the job line
+        }
+        journal.append(jobLine);
+        return journal;
+    }
+
+    /**
+     * The messages of the jobs whose journal was left behind, oldest first.
+     */
+    static List<String> unfinished(Path dir) {
+        List<String> jobs = new ArrayList<>();
+        if (dir == null || !Files.isDirectory(dir)) {
+            return jobs;
+        }
+        TreeMap<Long, List<Path>> byAge = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                byAge.computeIfAbsent(Files.getLastModifiedTime(file).toMillis(), t -> new ArrayList<>()).add(file);
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not list the job journal: " + e.getMessage());
+            return jobs;
+        }
+        for (List<Path> files : byAge.values()) {
+            for (Path file : files) {
+                try {
+                    String first = Files.readAllLines(file, StandardCharsets.UTF_8).getFirst();
+                    jobs.add(new String(Base64.getDecoder().decode(first.substring(JOB.length() + 1)),
+                            StandardCharsets.UTF_8));
+                } catch (Exception e) {
+                    System.err.printf("[WARN] Discarding unreadable journal %s: %s%n", file.getFileName(), e.getMessage());
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Whether an earlier run of this job left the journal.
+     */
+    boolean resumed() {
+        return resumed;
+    }
+
+    boolean has(String stage) {
+        return stages.containsKey(stage);
+    }
+
+    /**
+     * The value recorded with {@code stage}, or null if the stage was not completed.
+     */
+    String get(String stage) {
+        return stages.get(stage);
+    }
+
+    void record(String stage) throws IOException {
+        record(stage, "");
+    }
+
+    void record(String stage, String value) throws IOException {
+        stages.put(stage, value);
+        append(value.isEmpty() ? stage : stage + " " + value);
+    }
+
+    /**
+     * Reports the Java engine's finished segments to this journal and resumes it after them.
+     */
+    JavaAesEngine.Checkpoint checkpoint() {
+        if (file == null) {
+            return JavaAesEngine.Checkpoint.NONE;
+        }
+        return new JavaAesEngine.Checkpoint() {
+            @Override
+            public long resumeOffset() {
+                // Only the contiguous prefix counts: the engine writes segments in order
+                long end = 0;
+                for (Map.Entry<Long, Long> chunk : chunks.entrySet()) {
+                    if (chunk.getKey() > end) {
+                        break;
+                    }
+                    end = Math.max(end, chunk.getValue());
+                }
+                return end;
+            }
+
+            @Override
+            public void segmentDone(long from, long to) throws IOException {
+                chunks.put(from, to);
+                append(CHUNK + " " + from + " " + to);
+            }
+        };
+    }
+
+    /**
+     * Forgets the job; called once it is over.
+     */
+    void remove() {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.printf("[WARN] Could not remove journal %s: %s%n", file.getFileName(), e.getMessage());
+        }
+    }
+
+    private void replay(String line) {
+        String[] fields = line.split(" ", 3);
+        if (fields[0].equals(CHUNK)) {
+            try {
+                chunks.put(Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+            } catch (RuntimeException ignored) {
+                // cut short by the crash; the segment is done again
+            }
+        } else {
+            stages.put(fields[0], line.length() > fields[0].length() ? line.substring(fields[0].length() + 1) : "");
+        }
+    }
+
+    private void append(String line) throws IOException {
+        if (file != null) {
+            Files.writeString(file, line + "\n", StandardCharsets.UTF_8,
+                    StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+        }
+    }
+}
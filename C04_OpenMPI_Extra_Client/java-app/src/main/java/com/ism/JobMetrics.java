@@ -0,0 +1,66 @@
+package com.ism;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Metrics of the job pipeline: a latency histogram per stage, job outcomes, and processed
+ * bytes and cipher time per mode / key length / operation (bytes/s is the ratio of their rates).
+ * Scraped from {@code http://<host>:METRICS_PORT/metrics}.
+ */
+public final class JobMetrics {
+
+    private static final String STAGE_HELP = "Time spent per job in each pipeline stage";
+
+    public static final Metrics.Histogram QUEUE_WAIT = stage("queue_wait");
+    public static final Metrics.Histogram IV_UPDATE = stage("iv_update");
+    public static final Metrics.Histogram DOWNLOAD = stage("download");
+    public static final Metrics.Histogram COMPRESS = stage("compress");
+    public static final Metrics.Histogram CPU_WAIT = stage("cpu_wait");
+    public static final Metrics.Histogram CIPHER_JAVA = stage("cipher_java");
+    public static final Metrics.Histogram CIPHER_HYBRID = stage("cipher_hybrid");
+    public static final Metrics.Histogram CIPHER_HYBRID_LOCAL = stage("cipher_hybrid_local");
+    public static final Metrics.Histogram DECOMPRESS = stage("decompress");
+    public static final Metrics.Histogram UPLOAD = stage("upload");
+    public static final Metrics.Histogram NOTIFY = stage("notify");
+    public static final Metrics.Histogram TOTAL = stage("total");
+
+    public static final Metrics.Counter SUCCEEDED =
+            Metrics.counter("aes_jobs_total", "Jobs processed by this consumer", "outcome", "success");
+    public static final Metrics.Counter FAILED =
+            Metrics.counter("aes_jobs_total", "Jobs processed by this consumer", "outcome", "failure");
+    public static final Metrics.Counter INLINE =
+            Metrics.counter("aes_inline_jobs_total", "Jobs whose input came inside the job message");
+
+    private JobMetrics() {
+    }
+
+    private static Metrics.Histogram stage(String stage) {
+        return Metrics.histogram("aes_job_stage_seconds", STAGE_HELP, "stage", stage);
+    }
+
+    public static void recordCipher(String mode, int keyLengthBits, String operation, long bytes, long nanos) {
+        String[] labels = {"mode", mode.toLowerCase(), "key_length", String.valueOf(keyLengthBits),
+                "operation", operation.toLowerCase()};
+        Metrics.counter("aes_cipher_bytes_total", "Input bytes run through the cipher", labels).add(bytes);
+        Metrics.histogram("aes_cipher_seconds", "Cipher runtime per job", labels).observeNanos(nanos);
+    }
+
+    public static void serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        System.out.printf("[INFO] Metrics available on port %d at /metrics%n", port);
+    }
+}
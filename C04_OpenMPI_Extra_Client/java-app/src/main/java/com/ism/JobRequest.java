@@ -0,0 +1,68 @@
+package com.ism;
+
+import org.json.JSONObject;
+
+/**
+ * A job as published by the Javalin backend, parsed and validated.
+ */
+public record JobRequest(String id, String fileUrl, String fileName, String aesLength, String aesKey,
+                         int keyLengthBits, String mode, String operation, String requestIv, boolean compress) {
+
+    public static JobRequest parse(String jsonText) {
+        JSONObject json = new JSONObject(jsonText);
+
+        String objectId   = json.getString("id");
+        String fileUrl    = json.getString("fileUrl");
+        String fileName   = json.getString("fileName");
+        String aesLength  = json.optString("aesLength");
+        String aesKey     = json.optString("requestPassword");
+        String mode       = json.optString("mode").trim().toLowerCase();
+        String operation  = json.optString("operation").trim().toLowerCase();
+
+        if (!mode.equals("ecb") && !mode.equals("cbc") && !mode.equals("ctr") && !mode.equals("gcm")) {
+            throw new IllegalArgumentException("Unsupported AES mode: " + mode + ". Only ECB, CBC, CTR or GCM supported.");
+        }
+        if (!operation.equals("encrypt") && !operation.equals("decrypt")) {
+            throw new IllegalArgumentException("Unsupported operation: " + operation);
+        }
+
+        int keyLengthBits;
+        try {
+            keyLengthBits = Integer.parseInt(aesLength.trim());
+            if (keyLengthBits != 128 && keyLengthBits != 192 && keyLengthBits != 256) {
+                throw new IllegalArgumentException("Invalid AES key length. Only 128, 192, or 256 bits supported.");
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid AES key length: not a number", e);
+        }
+
+        int expectedBytes = keyLengthBits / 8;
+        if (aesKey.length() != expectedBytes) {
+            throw new IllegalArgumentException(
+                String.format("AES key length mismatch: expected %d bytes (for %d-bit), got %d",
+                    expectedBytes, keyLengthBits, aesKey.length()));
+        }
+
+        String requestIv = json.optString("requestIv").trim();
+        boolean ivGiven = !requestIv.isEmpty() && !requestIv.equalsIgnoreCase("null");
+        if (!mode.equals("ecb") && ivGiven) {
+            // GCM only uses a 12-byte nonce, so 24 hex characters are accepted there as well
+            boolean validLength = requestIv.length() == 32 || (mode.equals("gcm") && requestIv.length() == 24);
+            if (!validLength || !requestIv.matches("[0-9a-fA-F]+")) {
+                throw new IllegalArgumentException("IV must be a 32-character hexadecimal string (16 bytes) for "
+                        + mode.toUpperCase() + " mode");
+            }
+        }
+        // Compress before encrypting; decryption finds out from the output's frame header instead
+        boolean compress = json.optBoolean("compress", false);
+        return new JobRequest(objectId, fileUrl, fileName, aesLength, aesKey, keyLengthBits, mode, operation, requestIv,
+                compress);
+    }
+
+    /**
+     * Every mode but ECB needs an IV (the initial counter for CTR, the nonce for GCM).
+     */
+    public boolean usesIv() {
+        return !mode.equals("ecb");
+    }
+}
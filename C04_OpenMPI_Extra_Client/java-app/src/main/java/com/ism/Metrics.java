@@ -0,0 +1,169 @@
+package com.ism;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Minimal in-process metrics registry with Prometheus text output.
+ *
+ * Counters, gauges and histograms are LongAdder based, so recording from many threads is a couple of
+ * uncontended adds and never takes a lock. Histograms use fixed latency buckets in seconds.
+ * Metrics are identified by name plus label pairs; callers on hot paths keep the returned
+ * instance instead of looking it up for every observation.
+ */
+public final class Metrics {
+
+    private static final double[] BUCKETS = {
+            0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300
+    };
+
+    private static final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").series.computeIfAbsent(labelString(labels), k -> new Counter());
+    }
+
+    public static Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help, "histogram").series.computeIfAbsent(labelString(labels), k -> new Histogram());
+    }
+
+    public static Gauge gauge(String name, String help, String... labels) {
+        return (Gauge) family(name, help, "gauge").series.computeIfAbsent(labelString(labels), k -> new Gauge());
+    }
+
+    /**
+     * All metrics in the Prometheus text exposition format (version 0.0.4).
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Family family : new TreeMap<>(families).values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : new TreeMap<>(family.series).entrySet()) {
+                String labels = series.getKey();
+                if (series.getValue() instanceof Counter counter) {
+                    out.append(family.name).append(braces(labels)).append(' ').append(counter.value.sum()).append('\n');
+                } else if (series.getValue() instanceof Gauge gauge) {
+                    out.append(family.name).append(braces(labels)).append(' ').append(gauge.value.sum()).append('\n');
+                } else if (series.getValue() instanceof Histogram histogram) {
+                    histogram.appendTo(out, family.name, labels);
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, k -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static String labelString(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        List<String> pairs = new ArrayList<>();
+        for (int i = 0; i < labels.length; i += 2) {
+            String value = labels[i + 1] == null ? "" : labels[i + 1];
+            pairs.add(labels[i] + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"");
+        }
+        return String.join(",", pairs);
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private record Family(String name, String help, String type, Map<String, Object> series) {
+        Family(String name, String help, String type) {
+            this(name, help, type, new ConcurrentHashMap<>());
+        }
+    }
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+    }
+
+    /**
+     * A value that goes up and down, such as a queue depth.
+     */
+    public static final class Gauge {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void dec() {
+            value.decrement();
+        }
+
+        /**
+         * For gauges that hold a sampled value rather than count up and down.
+         */
+        public void set(long newValue) {
+            value.reset();
+            value.add(newValue);
+        }
+    }
+
+    public static final class Histogram {
+        private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        public void observeNanos(long nanos) {
+            double seconds = nanos / 1e9;
+            int bucket = 0;
+            while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) {
+                bucket++;
+            }
+            counts[bucket].increment();
+            sumNanos.add(nanos);
+        }
+
+        /**
+         * Records the time elapsed since {@code startNanos} (a System.nanoTime() value).
+         */
+        public void observeSince(long startNanos) {
+            observeNanos(System.nanoTime() - startNanos);
+        }
+
+        private void appendTo(StringBuilder out, String name, String labels) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += counts[i].sum();
+                out.append(name).append("_bucket{").append(prefix).append("le=\"").append(BUCKETS[i]).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            cumulative += counts[BUCKETS.length].sum();
+            out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+            out.append(name).append("_sum").append(braces(labels)).append(' ').append(sumNanos.sum() / 1e9).append('\n');
+            out.append(name).append("_count").append(braces(labels)).append(' ').append(cumulative).append('\n');
+        }
+    }
+}
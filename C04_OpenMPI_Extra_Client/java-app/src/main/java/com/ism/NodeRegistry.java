@@ -0,0 +1,349 @@
+package com.ism;
+
+import com.sun.management.OperatingSystemMXBean;
+import org.snmp4j.CommunityTarget;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.GenericAddress;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The MPI nodes hybrid can run on, their current load, and the placement of each hybrid run.
+ *
+ * Nodes come from MPI_HOSTS and from registration files: an MPI container writes its host name,
+ * holding its slot count, into MPI_NODE_DIR on the shared volume when it starts. The directory is
+ * read again on every poll, so a new container joins without restarting the consumer, and a
+ * removed file removes its node. Every MPI_NODE_POLL_MS each node gets one asynchronous SNMP GET
+ * for the CPU idle and memory OIDs the backend's SnmpCollector reads; the node this consumer runs
+ * on has no agent and is sampled from the JVM instead. A node that missed MPI_NODE_MAX_MISSES
+ * polls in a row, or uses more than MPI_NODE_MAX_MEMORY percent of its memory, gets no ranks until
+ * it recovers.
+ *
+ * A run asks for one rank per MPI_BYTES_PER_RANK input bytes, at least one and at most the free
+ * slots, a node's slots shrinking with its CPU use. Ranks go to the least loaded nodes first, so
+ * a busy node gets fewer ranks and with them fewer of hybrid's evenly split blocks. With no usable
+ * node known, or MPI_PLACEMENT=static, runs use the static MPI_HOSTS topology as before.
+ */
+final class NodeRegistry {
+
+    private static final String COMMUNITY = "public";
+    // "load" places every run from the nodes' current load; "static" always uses MPI_HOSTS
+    private static final boolean LOAD_AWARE =
+            !"static".equalsIgnoreCase(System.getenv().getOrDefault("MPI_PLACEMENT", "load"));
+    // Registration files of MPI containers: file name = host, content = slots
+    private static final Path NODE_DIR = Paths.get(System.getenv().getOrDefault("MPI_NODE_DIR",
+            System.getenv().getOrDefault("DATA_DIR", "/home/mpiuser/data") + "/nodes"));
+    private static final int SNMP_PORT = Integer.parseInt(System.getenv().getOrDefault("MPI_SNMP_PORT", "16161"));
+    private static final long POLL_MS = Long.parseLong(System.getenv().getOrDefault("MPI_NODE_POLL_MS", "5000"));
+    private static final int MAX_MISSES = Integer.parseInt(System.getenv().getOrDefault("MPI_NODE_MAX_MISSES", "2"));
+    private static final int MAX_MEMORY = Integer.parseInt(System.getenv().getOrDefault("MPI_NODE_MAX_MEMORY", "95"));
+    private static final long BYTES_PER_RANK =
+            Long.parseLong(System.getenv().getOrDefault("MPI_BYTES_PER_RANK", String.valueOf(16L << 20)));
+    // The node this consumer runs on, under the name the host lists use for it
+    private static final String LOCAL_NODE = System.getenv().getOrDefault("MPI_LOCAL_NODE", "c03-jms-consumer");
+
+    private static final OID CPU_IDLE = new OID("1.3.6.1.4.1.2021.11.9.0");
+    private static final OID MEM_AVAIL = new OID("1.3.6.1.4.1.2021.4.6.0");
+    private static final OID MEM_TOTAL = new OID("1.3.6.1.4.1.2021.4.5.0");
+
+    private static final Map<String, Node> nodes = new LinkedHashMap<>();
+    private static final Set<String> configured = new HashSet<>();
+    private static Snmp snmp;
+    private static boolean started;
+
+    private NodeRegistry() {
+    }
+
+    static synchronized void start() {
+        if (started || !LOAD_AWARE) {
+            return;
+        }
+        for (String entry : HybridLauncher.CLUSTER.hosts().split(",")) {
+            String[] parts = entry.trim().split(":", 2);
+            if (!parts[0].isEmpty()) {
+                nodes.put(parts[0], new Node(parts[0], parts.length == 2 ? Integer.parseInt(parts[1].trim()) : 1));
+                configured.add(parts[0]);
+            }
+        }
+        try {
+            snmp = new Snmp(new DefaultUdpTransportMapping());
+            snmp.listen();
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not open the SNMP session, only this node is sampled: " + e.getMessage());
+        }
+        started = true;
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mpi-node-registry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(NodeRegistry::pollAll, 0, POLL_MS, TimeUnit.MILLISECONDS);
+        System.out.printf("[INFO] MPI node registry: %s, registrations in %s%n", nodes.keySet(), NODE_DIR);
+    }
+
+    /**
+     * Where to run hybrid on {@code bytes} of input: the host list and rank count for mpirun.
+     */
+    static HybridLauncher.Topology place(long bytes) {
+        // One snapshot per run: the SNMP listener threads update the samples while we place
+        List<Candidate> usable = new ArrayList<>();
+        synchronized (NodeRegistry.class) {
+            if (!started) {
+                return HybridLauncher.CLUSTER;
+            }
+            for (Node node : nodes.values()) {
+                if (node.usable()) {
+                    int load = node.load();
+                    usable.add(new Candidate(node.host, load, node.freeSlots(load)));
+                }
+            }
+        }
+        if (usable.isEmpty()) {
+            return HybridLauncher.CLUSTER;
+        }
+        usable.sort(Comparator.comparingInt(Candidate::load)); // stable: equally loaded nodes keep their order
+
+        int free = 0;
+        for (Candidate candidate : usable) {
+            free += candidate.free();
+        }
+        long wanted = Math.max(1, Math.ceilDiv(bytes, BYTES_PER_RANK));
+        int ranks = (int) Math.min(wanted, Math.max(1, free));
+
+        if (free == 0) {
+            // Every node is busy: one rank on the least loaded
+            return new HybridLauncher.Topology(usable.getFirst().host() + ":" + ranks, ranks);
+        }
+        StringBuilder hosts = new StringBuilder();
+        int left = ranks;
+        for (Candidate candidate : usable) {
+            int take = Math.min(left, candidate.free());
+            if (take > 0) {
+                hosts.append(hosts.isEmpty() ? "" : ",").append(candidate.host()).append(':').append(take);
+                left -= take;
+            }
+        }
+        return new HybridLauncher.Topology(hosts.toString(), ranks);
+    }
+
+    private record Candidate(String host, int load, int free) {
+    }
+
+    private static void pollAll() {
+        List<Node> polled;
+        synchronized (NodeRegistry.class) {
+            refreshRegistrations();
+            polled = new ArrayList<>(nodes.values());
+        }
+        for (Node node : polled) {
+            if (node.local()) {
+                node.sampleLocal();
+            } else if (snmp == null) {
+                node.miss();
+            } else {
+                try {
+                    PDU pdu = new PDU();
+                    pdu.add(new VariableBinding(CPU_IDLE));
+                    pdu.add(new VariableBinding(MEM_AVAIL));
+                    pdu.add(new VariableBinding(MEM_TOTAL));
+                    pdu.setType(PDU.GET);
+                    snmp.send(pdu, node.target, node, node);
+                } catch (Exception e) {
+                    node.miss();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the nodes registered in NODE_DIR and drops those whose file is gone.
+     */
+    private static void refreshRegistrations() {
+        Map<String, Integer> registered = new LinkedHashMap<>();
+        if (Files.isDirectory(NODE_DIR)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(NODE_DIR)) {
+                for (Path file : files) {
+                    String host = file.getFileName().toString();
+                    if (host.startsWith(".") || !host.matches("[A-Za-z0-9._-]+")) {
+                        continue;
+                    }
+                    int slots = 1;
+                    try {
+                        slots = Math.max(1, Integer.parseInt(Files.readString(file).trim()));
+                    } catch (IOException | NumberFormatException ignored) {
+                        // an empty or unreadable file registers one slot
+                    }
+                    registered.put(host, slots);
+                }
+            } catch (IOException e) {
+                System.err.println("[WARN] Could not read the MPI node registrations: " + e.getMessage());
+                return;
+            }
+        }
+        for (Map.Entry<String, Integer> entry : registered.entrySet()) {
+            Node node = nodes.get(entry.getKey());
+            if (node == null) {
+                nodes.put(entry.getKey(), new Node(entry.getKey(), entry.getValue()));
+                System.out.printf("[INFO] MPI node %s registered with %d slots%n", entry.getKey(), entry.getValue());
+            } else if (!configured.contains(entry.getKey())) {
+                node.slots = entry.getValue();
+            }
+        }
+        nodes.entrySet().removeIf(entry -> {
+            boolean gone = !configured.contains(entry.getKey()) && !registered.containsKey(entry.getKey());
+            if (gone) {
+                entry.getValue().forget();
+                System.out.printf("[INFO] MPI node %s unregistered%n", entry.getKey());
+            }
+            return gone;
+        });
+    }
+
+    private static final class Node implements ResponseListener {
+        private final String host;
+        private final CommunityTarget<Address> target = new CommunityTarget<>();
+        private final Metrics.Gauge cpuGauge;
+        private final Metrics.Gauge memoryGauge;
+        private final Metrics.Gauge usableGauge;
+
+        private volatile int slots;
+        private volatile int cpu = -1;
+        private volatile int memory = -1;
+        private volatile int misses;
+
+        Node(String host, int slots) {
+            this.host = host;
+            this.slots = slots;
+            target.setCommunity(new OctetString(COMMUNITY));
+            target.setAddress(GenericAddress.parse("udp:" + host + "/" + SNMP_PORT));
+            target.setRetries(1);
+            target.setTimeout(Math.max(500, POLL_MS / 3));
+            target.setVersion(SnmpConstants.version2c);
+            cpuGauge = Metrics.gauge("mpi_node_cpu_percent", "CPU use of an MPI node, -1 when unknown", "node", host);
+            memoryGauge = Metrics.gauge("mpi_node_memory_percent", "Memory use of an MPI node, -1 when unknown",
+                    "node", host);
+            usableGauge = Metrics.gauge("mpi_node_usable", "Whether hybrid runs are placed on an MPI node", "node", host);
+            cpuGauge.set(-1);
+            memoryGauge.set(-1);
+            usableGauge.set(1);
+        }
+
+        boolean local() {
+            return host.equals(LOCAL_NODE) || host.equals("localhost");
+        }
+
+        boolean usable() {
+            return misses < MAX_MISSES && memory <= MAX_MEMORY;
+        }
+
+        /**
+         * CPU use in percent, 0 while unknown so a node that has not answered yet is not passed over.
+         */
+        int load() {
+            return Math.max(0, cpu);
+        }
+
+        int freeSlots(int load) {
+            return Math.round(slots * (100 - load) / 100f);
+        }
+
+        @Override
+        public <A extends Address> void onResponse(ResponseEvent<A> event) {
+            // Asynchronous requests must be cancelled explicitly, or snmp4j keeps them pending
+            ((Snmp) event.getSource()).cancel(event.getRequest(), this);
+
+            PDU response = event.getResponse();
+            if (response == null) {
+                miss(); // timed out: the node or its agent is gone
+                return;
+            }
+            if (response.getErrorStatus() != 0 || response.size() < 3) {
+                record(-1, -1); // the agent answered, it just does not expose the load
+                return;
+            }
+            int cpuIdle = intValue(response.get(0).getVariable());
+            int memAvail = intValue(response.get(1).getVariable());
+            int memTotal = intValue(response.get(2).getVariable());
+            record(cpuIdle < 0 ? -1 : 100 - cpuIdle,
+                    memAvail < 0 || memTotal <= 0 ? -1 : (int) ((long) (memTotal - memAvail) * 100 / memTotal));
+        }
+
+        void sampleLocal() {
+            OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+            double cpuLoad = os.getCpuLoad();
+            long total = os.getTotalMemorySize();
+            record(cpuLoad < 0 ? -1 : (int) Math.round(cpuLoad * 100),
+                    total <= 0 ? -1 : (int) ((total - os.getFreeMemorySize()) * 100 / total));
+        }
+
+        /**
+         * An answer from the node; -1 marks a value it did not report (e.g. noSuchObject), which
+         * keeps the last known one. The node counts as reachable either way.
+         */
+        void record(int cpuUsage, int memUsage) {
+            misses = 0;
+            if (cpuUsage >= 0) {
+                cpu = cpuUsage;
+            }
+            if (memUsage >= 0) {
+                memory = memUsage;
+            }
+            updateGauges();
+        }
+
+        /**
+         * A poll that got no answer at all.
+         */
+        void miss() {
+            misses++;
+            updateGauges();
+        }
+
+        private void updateGauges() {
+            cpuGauge.set(cpu);
+            memoryGauge.set(memory);
+            usableGauge.set(usable() ? 1 : 0);
+        }
+
+        void forget() {
+            usableGauge.set(0);
+        }
+
+        private static int intValue(Variable variable) {
+            if (variable == null || variable.isException()) {
+                return -1;
+            }
+            try {
+                return Integer.parseInt(variable.toString());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.ism;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Downloads a file from the Javalin /download route in several byte ranges at once.
+ * Each part is written at its own offset of a pre-sized file through a shared FileChannel,
+ * straight from the HTTP client's buffers, so no part is ever held in memory as a whole.
+ *
+ * Falls back to a single streamed GET when the server does not advertise range support or
+ * the file is too small to be worth splitting. Every part carries If-Range with the ETag from
+ * the initial HEAD, so a file replaced mid-download is detected instead of silently mixed.
+ *
+ * The content digest is computed on the fly: SHA-256 of every DIGEST_BLOCK bytes, then SHA-256
+ * over those block digests. Parts start on block boundaries, so every part hashes its own blocks
+ * and the result does not depend on how the file was split.
+ */
+public final class RangedDownloader {
+
+    static final int DIGEST_BLOCK = 4 * 1024 * 1024;
+
+    private RangedDownloader() {
+    }
+
+    /**
+     * Downloads {@code fileUrl} to {@code target} and returns the hex content digest.
+     */
+    public static String download(HttpClient client, String fileUrl, Path target, int parts, long minPartSize)
+            throws IOException, InterruptedException {
+        URI uri = URI.create(fileUrl);
+
+        HttpResponse<Void> head = client.send(
+                HttpRequest.newBuilder().uri(uri).method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        long size = head.headers().firstValueAsLong("Content-Length").orElse(-1);
+        boolean ranges = head.headers().firstValue("Accept-Ranges").map("bytes"::equalsIgnoreCase).orElse(false);
+        String etag = head.headers().firstValue("ETag").orElse(null);
+
+        int partCount = size > 0 ? (int) Math.min(parts, size / Math.max(1, minPartSize)) : 0;
+        if (head.statusCode() != 200 || !ranges || etag == null || partCount < 2) {
+            return downloadWhole(client, uri, target);
+        }
+
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(1), size - 1); // pre-size so parts can land in any order
+
+            long partSize = (size + partCount - 1) / partCount;
+            partSize = (partSize + DIGEST_BLOCK - 1) / DIGEST_BLOCK * DIGEST_BLOCK;
+            List<CompletableFuture<List<byte[]>>> futures = new ArrayList<>();
+            for (long start = 0; start < size; start += partSize) {
+                long end = Math.min(size, start + partSize) - 1;
+                futures.add(downloadPart(client, uri, etag, channel, start, end));
+            }
+
+            List<byte[]> blockDigests = new ArrayList<>();
+            boolean complete = true;
+            for (CompletableFuture<List<byte[]>> future : futures) {
+                try {
+                    List<byte[]> part = future.join();
+                    if (part == null) {
+                        complete = false;
+                    } else {
+                        blockDigests.addAll(part);
+                    }
+                } catch (CompletionException e) {
+                    throw new IOException("Ranged download failed: " + fileUrl, e.getCause());
+                }
+            }
+            if (complete) {
+                return contentDigest(blockDigests);
+            }
+        }
+
+        System.out.println("[download] Ranged download of " + fileUrl + " was rejected, retrying as a single request");
+        return downloadWhole(client, uri, target);
+    }
+
+    private static String downloadWhole(HttpClient client, URI uri, Path target) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            HttpResponse<List<byte[]>> response = client.send(HttpRequest.newBuilder().uri(uri).GET().build(),
+                    info -> info.statusCode() == 200
+                            ? new PartWriter(channel, 0, -1)
+                            : HttpResponse.BodySubscribers.replacing(null));
+            if (response.statusCode() != 200) {
+                throw new IOException("Failed to download file: HTTP " + response.statusCode());
+            }
+            return contentDigest(response.body());
+        }
+    }
+
+    /**
+     * The content digest of {@code data}, as {@link #download} computes it for a downloaded file.
+     */
+    static String contentDigest(byte[] data) {
+        List<byte[]> blockDigests = new ArrayList<>();
+        for (int offset = 0; offset < data.length; offset += DIGEST_BLOCK) {
+            MessageDigest block = sha256();
+            block.update(data, offset, Math.min(DIGEST_BLOCK, data.length - offset));
+            blockDigests.add(block.digest());
+        }
+        return contentDigest(blockDigests);
+    }
+
+    private static String contentDigest(List<byte[]> blockDigests) {
+        MessageDigest digest = sha256();
+        blockDigests.forEach(digest::update);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Completes with the part's block digests when it was written in full, null when the server
+     * answered with something other than 206 (for example because If-Range no longer matched).
+     */
+    private static CompletableFuture<List<byte[]>> downloadPart(HttpClient client, URI uri, String etag,
+                                                                FileChannel channel, long start, long end) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(uri)
+                .header("Range", "bytes=" + start + "-" + end)
+                .header("If-Range", etag)
+                .GET()
+                .build();
+
+        HttpResponse.BodyHandler<List<byte[]>> handler = info -> info.statusCode() == 206
+                ? new PartWriter(channel, start, end - start + 1)
+                : HttpResponse.BodySubscribers.replacing(null);
+
+        return client.sendAsync(request, handler).thenApply(HttpResponse::body);
+    }
+
+    /**
+     * Writes a body at its offset and digests it block by block; completes with the block
+     * digests, or null when fewer than the expected bytes (-1: any number) arrived.
+     */
+    private static final class PartWriter implements HttpResponse.BodySubscriber<List<byte[]>> {
+        private final FileChannel channel;
+        private final long start;
+        private final long expected;
+        private final CompletableFuture<List<byte[]>> result = new CompletableFuture<>();
+        private final MessageDigest block = sha256();
+        private final List<byte[]> blockDigests = new ArrayList<>();
+        private long blockBytes;
+        private long position;
+        private Flow.Subscription subscription;
+
+        PartWriter(FileChannel channel, long start, long expected) {
+            this.channel = channel;
+            this.start = start;
+            this.expected = expected;
+            this.position = start;
+        }
+
+        @Override
+        public CompletionStage<List<byte[]>> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            try {
+                for (ByteBuffer buffer : buffers) {
+                    digest(buffer.duplicate());
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                }
+                subscription.request(1);
+            } catch (IOException e) {
+                subscription.cancel();
+                result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (blockBytes > 0) {
+                blockDigests.add(block.digest());
+            }
+            boolean full = expected < 0 || position - start == expected;
+            result.complete(full ? blockDigests : null);
+        }
+
+        private void digest(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                int length = (int) Math.min(buffer.remaining(), DIGEST_BLOCK - blockBytes);
+                ByteBuffer slice = buffer.slice(buffer.position(), length);
+                block.update(slice);
+                buffer.position(buffer.position() + length);
+                blockBytes += length;
+                if (blockBytes == DIGEST_BLOCK) {
+                    blockDigests.add(block.digest());
+                    blockBytes = 0;
+                }
+            }
+        }
+    }
+}
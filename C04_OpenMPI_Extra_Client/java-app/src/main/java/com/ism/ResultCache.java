@@ -0,0 +1,168 @@
+package com.ism;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disk-backed LRU cache of cipher outputs, keyed by everything that determines them: the input's
+ * content digest, operation, mode, key length, IV and a fingerprint of the key.
+ *
+ * Entries are plain files named by that key in one directory, so the cache survives restarts;
+ * at startup the LRU order is rebuilt from modification times, which hits refresh. When the
+ * files exceed maxBytes the least recently used ones are deleted. A maxBytes of 0 disables it.
+ */
+final class ResultCache {
+
+    private static final Metrics.Counter HITS =
+            Metrics.counter("result_cache_requests_total", "Result cache lookups", "outcome", "hit");
+    private static final Metrics.Counter MISSES =
+            Metrics.counter("result_cache_requests_total", "Result cache lookups", "outcome", "miss");
+    private static final Metrics.Counter EVICTIONS =
+            Metrics.counter("result_cache_evictions_total", "Result cache entries deleted to stay under the size cap");
+
+    private final Path dir;
+    private final long maxBytes;
+    // key -> size, least recently used first
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    ResultCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        if (enabled()) {
+            load();
+        }
+    }
+
+    boolean enabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * The cache key of a job. ECB ignores the IV, so it is left out there; the AES key only enters
+     * through the digest.
+     */
+    static String key(String contentDigest, String operation, String mode, int keyLengthBits, String iv, String aesKey) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String fields = String.join("\n", contentDigest, operation.toLowerCase(), mode.toLowerCase(),
+                String.valueOf(keyLengthBits), iv == null || "ecb".equalsIgnoreCase(mode) ? "" : iv.toLowerCase());
+        digest.update(fields.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+        digest.update(aesKey.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Copies the cached output for {@code key} to {@code target}; false on a miss.
+     */
+    boolean copyTo(String key, Path target) throws IOException {
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                MISSES.inc();
+                return false;
+            }
+        }
+        Path file = dir.resolve(key);
+        try {
+            Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Deleted or evicted meanwhile: forget it and treat as a miss
+            synchronized (this) {
+                Long size = entries.remove(key);
+                totalBytes -= size == null ? 0 : size;
+            }
+            MISSES.inc();
+            return false;
+        }
+        HITS.inc();
+        return true;
+    }
+
+    /**
+     * Stores a copy of {@code output} under {@code key}, evicting old entries to stay under the cap.
+     */
+    void put(String key, Path output) throws IOException {
+        long size = Files.size(output);
+        if (size > maxBytes) {
+            return;
+        }
+        Path temp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            Files.copy(output, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, dir.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Long previous = entries.put(key, size);
+            totalBytes += size - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+                totalBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        for (String victim : evicted) {
+            Files.deleteIfExists(dir.resolve(victim));
+            EVICTIONS.inc();
+        }
+    }
+
+    private void load() {
+        try {
+            Files.createDirectories(dir);
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path file : stream) {
+                    if (file.getFileName().toString().endsWith(".tmp")) {
+                        Files.deleteIfExists(file); // left over from a crash mid-store
+                    } else {
+                        files.add(file);
+                    }
+                }
+            }
+            files.sort(Comparator.comparing(file -> {
+                try {
+                    return Files.getLastModifiedTime(file);
+                } catch (IOException e) {
+                    return FileTime.fromMillis(0);
+                }
+            }));
+            for (Path file : files) {
+                long size = Files.size(file);
+                entries.put(file.getFileName().toString(), size);
+                totalBytes += size;
+            }
+            System.out.printf("[INFO] Result cache: %d entries, %d bytes in %s%n", entries.size(), totalBytes, dir);
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not load the result cache: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.ism;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * Uploads a processed file to the middleware in segments, for outputs too large for one multipart
+ * request (the middleware would hold all of it in memory).
+ *
+ * The file is described by a manifest of segments (index, length, SHA-256). Each segment is read
+ * through a memory-mapped region and PUT on its own, so memory stays bounded by one segment
+ * whatever the file size. The middleware keeps the segments it received, so a retry or a
+ * redelivered job only sends the ones it does not already hold with the right digest. Posting the
+ * manifest at the end makes the middleware verify the set and attach it, in order, to the request.
+ */
+final class SegmentedUploader {
+
+    private static final int SEGMENT_ATTEMPTS = 3;
+
+    private static final Metrics.Counter SEGMENTS_SENT =
+            Metrics.counter("upload_segments_total", "Output segments uploaded to the middleware", "outcome", "sent");
+    private static final Metrics.Counter SEGMENTS_SKIPPED =
+            Metrics.counter("upload_segments_total", "Output segments uploaded to the middleware", "outcome", "skipped");
+
+    private SegmentedUploader() {
+    }
+
+    static void upload(String id, Path path, String fileName, long segmentBytes) throws Exception {
+        Map<Integer, String> stored = storedSegments(id);
+        JSONArray manifest = new JSONArray();
+        long size;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            int index = 0;
+            for (long offset = 0; offset < size; offset += segmentBytes, index++) {
+                ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                        Math.min(segmentBytes, size - offset));
+                String digest = sha256(segment.duplicate());
+                if (digest.equals(stored.get(index))) {
+                    SEGMENTS_SKIPPED.inc();
+                } else {
+                    putSegment(id, index, segment, digest);
+                    SEGMENTS_SENT.inc();
+                }
+                manifest.put(new JSONObject()
+                        .put("index", index)
+                        .put("length", segment.limit())
+                        .put("sha256", digest));
+            }
+        }
+
+        JSONObject complete = new JSONObject()
+                .put("fileName", fileName)
+                .put("size", size)
+                .put("segments", manifest);
+        HttpResponse<String> response = MiddlewareClient.send(MiddlewareClient.Endpoint.UPLOAD_PROCESSED,
+                MiddlewareClient.request(MiddlewareClient.Endpoint.UPLOAD_PROCESSED,
+                                "/uploadProcessedFile/" + id + "/complete")
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(complete.toString())),
+                HttpResponse.BodyHandlers.ofString());
+        System.out.printf("Segmented upload of %d segments: %d - %s%n", manifest.length(), response.statusCode(),
+                response.body());
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("Segmented upload rejected by middleware: HTTP " + response.statusCode());
+        }
+    }
+
+    /**
+     * Index -> SHA-256 of the segments the middleware already holds for this request.
+     */
+    private static Map<Integer, String> storedSegments(String id) throws Exception {
+        HttpResponse<String> response = MiddlewareClient.send(MiddlewareClient.Endpoint.UPLOAD_SEGMENT,
+                MiddlewareClient.request(MiddlewareClient.Endpoint.UPLOAD_SEGMENT,
+                        "/uploadProcessedFile/" + id + "/segments").GET(),
+                HttpResponse.BodyHandlers.ofString());
+        Map<Integer, String> stored = new HashMap<>();
+        if (response.statusCode() / 100 != 2) {
+            return stored; // nothing to resume from, send everything
+        }
+        JSONArray segments = new JSONObject(response.body()).getJSONArray("segments");
+        for (int i = 0; i < segments.length(); i++) {
+            JSONObject segment = segments.getJSONObject(i);
+            stored.put(segment.getInt("index"), segment.getString("sha256"));
+        }
+        return stored;
+    }
+
+    private static void putSegment(String id, int index, ByteBuffer segment, String digest) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            HttpResponse<String> response;
+            try {
+                response = MiddlewareClient.send(MiddlewareClient.Endpoint.UPLOAD_SEGMENT,
+                        MiddlewareClient.request(MiddlewareClient.Endpoint.UPLOAD_SEGMENT,
+                                        "/uploadProcessedFile/" + id + "/segments/" + index)
+                                .header("Content-Type", "application/octet-stream")
+                                .header("X-Segment-Sha256", digest)
+                                .PUT(HttpRequest.BodyPublishers.fromPublisher(
+                                        HttpRequest.BodyPublishers.ofInputStream(
+                                                () -> new BufferInputStream(segment.duplicate())),
+                                        segment.limit())),
+                        HttpResponse.BodyHandlers.ofString());
+            } catch (IOException e) {
+                if (attempt >= SEGMENT_ATTEMPTS) {
+                    throw e;
+                }
+                System.err.printf("[WARN] Segment %d upload failed (%s), retrying%n", index, e.getMessage());
+                continue;
+            }
+            if (response.statusCode() / 100 == 2) {
+                return;
+            }
+            if (attempt >= SEGMENT_ATTEMPTS || (response.statusCode() / 100 == 4 && response.statusCode() != 422)) {
+                throw new IOException("Segment " + index + " rejected by middleware: HTTP " + response.statusCode());
+            }
+            // 422: the middleware received something else than what was hashed here; send it again
+            System.err.printf("[WARN] Segment %d upload answered %d, retrying%n", index, response.statusCode());
+        }
+    }
+
+    private static String sha256(ByteBuffer data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a mapped segment as a stream, for the request body.
+     */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
@@ -9,6 +9,11 @@ echo "[mpi-node] Copying hybrid binary to shared data directory..."
 cp /home/mpiuser/app/hybrid /home/mpiuser/data/hybrid
 chmod +x /home/mpiuser/data/hybrid
 
+echo "[mpi-node] Registering with the consumers' node registry..."
+# The file name is the host mpirun reaches this node under, the content its slot count
+mkdir -p /home/mpiuser/data/nodes
+echo "${MPI_SLOTS:-1}" > "/home/mpiuser/data/nodes/${MPI_NODE_NAME:-$(hostname)}"
+
 echo "[mpi-node] Shared data directory contents:"
 ls -l /home/mpiuser/data || echo "(empty)"
 
@@ -3,28 +3,46 @@
 #include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
 #include <openssl/aes.h>
 #include <openssl/evp.h>
 
 #define AES_BLOCK_SIZE 16
 
 #define SAFE_FREE(p) do { if ((p)) { free(p); (p) = NULL; } } while(0)
-
-// PKCS#7 unpadding
-int pkcs7_unpad(const unsigned char* input, int input_len, unsigned char** output) {
-    if (input_len == 0) return -1;
-    int pad_len = input[input_len - 1];
+#define MANIFEST_FIELDS 6
+
+#define GCM_CHUNK_SIZE (1 << 20) // plaintext bytes per GCM chunk, same as the Java engine
+#define GCM_TAG_SIZE 16
+#define GCM_NONCE_SIZE 12
+
+// Input bytes per round of scatter, cipher and gather. Only one segment is mapped at a time, so
+// memory use stays bounded for files of any size and MPI counts fit in an int.
+#define SEGMENT_SIZE (64L << 20)
+
+enum { MODE_ECB, MODE_CBC, MODE_CTR, MODE_GCM };
+
+typedef struct {
+    char *filename;
+    char *operation;
+    char *mode;
+    char *key_string;
+    char *iv_hex;
+    int keylen_bits;
+} job_t;
+
+// PKCS#7 padding length of the last block, or -1 if the padding is invalid
+int pkcs7_pad_length(const unsigned char* last_block) {
+    int pad_len = last_block[AES_BLOCK_SIZE - 1];
     if (pad_len <= 0 || pad_len > AES_BLOCK_SIZE) return -1;
 
     for (int i = 0; i < pad_len; i++) {
-        if (input[input_len - 1 - i] != pad_len) return -1;
+        if (last_block[AES_BLOCK_SIZE - 1 - i] != pad_len) return -1;
     }
-
-    int out_len = input_len - pad_len;
-    *output = malloc(out_len);
-    if (!*output) return -1;
-    memcpy(*output, input, out_len);
-    return out_len;
+    return pad_len;
 }
 
 void get_decrypted_filename(const char* input_filename, char* output_filename) {
@@ -39,275 +57,703 @@ void get_decrypted_filename(const char* input_filename, char* output_filename) {
     }
 }
 
-int main(int argc, char** argv) {
-    MPI_Init(&argc, &argv);
-    int rank, size;
-    MPI_Comm_rank(MPI_COMM_WORLD, &rank);
-    MPI_Comm_size(MPI_COMM_WORLD, &size);
+// Splits line on tabs in place (empty fields are kept). Returns the number of fields.
+int split_fields(char* line, char** fields, int max_fields) {
+    int count = 0;
+    fields[count++] = line;
+    for (char* p = line; *p && count < max_fields; p++) {
+        if (*p == '\t') {
+            *p = '\0';
+            fields[count++] = p + 1;
+        }
+    }
+    return count;
+}
 
-    char *filename = NULL, *operation = NULL, *mode = NULL;
-    char *key_string = NULL, *iv_hex = NULL;
-    int keylen_bits = 128;
+// Mode-specific state of one job, the same on every rank. The input is cut into units: AES blocks
+// for ECB/CBC/CTR, chunks of GCM_CHUNK_SIZE plaintext bytes (plus their tag) for GCM. Ranks and
+// threads take contiguous runs of units and each run is ciphered independently: a CTR run starts
+// at its own counter, a CBC decryption run chains from the ciphertext block before it, and every
+// GCM chunk has its own nonce and tag.
+typedef struct {
+    int mode;
+    int encrypt;
+    const EVP_CIPHER* cipher;
+    unsigned char key[32];
+    unsigned char iv[AES_BLOCK_SIZE];
+    int unit_in;
+    int unit_out;
+    long total_units;
+    long long data_size;
+} cipher_job_t;
+
+int parse_mode(const char* mode) {
+    if (strcmp(mode, "ecb") == 0) return MODE_ECB;
+    if (strcmp(mode, "cbc") == 0) return MODE_CBC;
+    if (strcmp(mode, "ctr") == 0) return MODE_CTR;
+    if (strcmp(mode, "gcm") == 0) return MODE_GCM;
+    return -1;
+}
 
-    for (int i = 1; i < argc; i++) {
-        if (strcmp(argv[i], "--file") == 0) filename = argv[++i];
-        else if (strcmp(argv[i], "--operation") == 0) operation = argv[++i];
-        else if (strcmp(argv[i], "--mode") == 0) mode = argv[++i];
-        else if (strcmp(argv[i], "--key") == 0) key_string = argv[++i];
-        else if (strcmp(argv[i], "--iv") == 0) iv_hex = argv[++i];
-        else if (strcmp(argv[i], "--keylen") == 0) keylen_bits = atoi(argv[++i]);
+const EVP_CIPHER* select_cipher(int mode, int key_len_bytes) {
+    switch (mode) {
+        case MODE_ECB:
+            return key_len_bytes == 16 ? EVP_aes_128_ecb() : key_len_bytes == 24 ? EVP_aes_192_ecb()
+                 : key_len_bytes == 32 ? EVP_aes_256_ecb() : NULL;
+        case MODE_CBC:
+            return key_len_bytes == 16 ? EVP_aes_128_cbc() : key_len_bytes == 24 ? EVP_aes_192_cbc()
+                 : key_len_bytes == 32 ? EVP_aes_256_cbc() : NULL;
+        case MODE_CTR:
+            return key_len_bytes == 16 ? EVP_aes_128_ctr() : key_len_bytes == 24 ? EVP_aes_192_ctr()
+                 : key_len_bytes == 32 ? EVP_aes_256_ctr() : NULL;
+        case MODE_GCM:
+            return key_len_bytes == 16 ? EVP_aes_128_gcm() : key_len_bytes == 24 ? EVP_aes_192_gcm()
+                 : key_len_bytes == 32 ? EVP_aes_256_gcm() : NULL;
+    }
+    return NULL;
+}
+
+// Input bytes of units [first, first + count)
+long long units_in_bytes(const cipher_job_t* c, long first, long count) {
+    long long start = (long long)first * c->unit_in;
+    long long end = (long long)(first + count) * c->unit_in;
+    if (end > c->data_size) end = c->data_size;
+    return end > start ? end - start : 0;
+}
+
+// Output bytes of units [first, first + count)
+long long units_out_bytes(const cipher_job_t* c, long first, long count) {
+    long long in_bytes = units_in_bytes(c, first, count);
+    if (c->mode != MODE_GCM) return in_bytes;
+    return c->encrypt ? in_bytes + count * GCM_TAG_SIZE : in_bytes - count * GCM_TAG_SIZE;
+}
+
+// The CTR counter block for AES block number `block`: the IV plus block, as a 128-bit big-endian number
+void counter_at(const unsigned char* iv, long block, unsigned char* counter) {
+    memcpy(counter, iv, AES_BLOCK_SIZE);
+    unsigned long long carry = (unsigned long long)block;
+    for (int i = AES_BLOCK_SIZE - 1; i >= 0 && carry; i--) {
+        carry += counter[i];
+        counter[i] = (unsigned char)(carry & 0xff);
+        carry >>= 8;
+    }
+}
+
+// One GCM chunk. Its nonce is the base nonce with the chunk index XORed into the last 8 bytes, and
+// the AAD (index, last-chunk flag) ties it to its position, so reordered, dropped or truncated
+// chunks fail authentication. Returns 1 on success.
+int gcm_chunk(EVP_CIPHER_CTX* ctx, const cipher_job_t* c, long index, const unsigned char* in, int in_len,
+              unsigned char* out) {
+    unsigned char nonce[GCM_NONCE_SIZE];
+    unsigned char aad[9];
+    memcpy(nonce, c->iv, GCM_NONCE_SIZE);
+    for (int i = 0; i < 8; i++) {
+        aad[i] = (unsigned char)((unsigned long long)index >> (56 - 8 * i));
+        nonce[GCM_NONCE_SIZE - 8 + i] ^= aad[i];
     }
+    aad[8] = index == c->total_units - 1;
+
+    int data_len = c->encrypt ? in_len : in_len - GCM_TAG_SIZE;
+    int len = 0;
+    if (data_len < 0
+        || !EVP_CipherInit_ex(ctx, c->cipher, NULL, NULL, NULL, c->encrypt)
+        || !EVP_CIPHER_CTX_ctrl(ctx, EVP_CTRL_GCM_SET_IVLEN, GCM_NONCE_SIZE, NULL)
+        || !EVP_CipherInit_ex(ctx, NULL, NULL, c->key, nonce, c->encrypt)
+        || !EVP_CipherUpdate(ctx, NULL, &len, aad, sizeof(aad))
+        || !EVP_CipherUpdate(ctx, out, &len, in, data_len)) {
+        return 0;
+    }
+    if (c->encrypt) {
+        return EVP_CipherFinal_ex(ctx, out + data_len, &len)
+            && EVP_CIPHER_CTX_ctrl(ctx, EVP_CTRL_GCM_GET_TAG, GCM_TAG_SIZE, out + data_len);
+    }
+    return EVP_CIPHER_CTX_ctrl(ctx, EVP_CTRL_GCM_SET_TAG, GCM_TAG_SIZE, (void*)(in + data_len))
+        && EVP_CipherFinal_ex(ctx, out + data_len, &len);
+}
+
+// Ciphers units [first, first + count) from in to out; count never spans more than a segment.
+// chain is the CBC IV of the first unit. Returns 0 on success.
+int cipher_units(const cipher_job_t* c, long first, int count, const unsigned char* in, unsigned char* out,
+                 const unsigned char* chain) {
+    if (count == 0) return 0;
+    EVP_CIPHER_CTX* ctx = EVP_CIPHER_CTX_new();
+    int ok = ctx != NULL;
+
+    if (c->mode == MODE_GCM) {
+        for (int u = 0; ok && u < count; u++) {
+            ok = gcm_chunk(ctx, c, first + u, in + (long)u * c->unit_in, (int)units_in_bytes(c, first + u, 1),
+                           out + (long)u * c->unit_out);
+        }
+    } else {
+        unsigned char iv[AES_BLOCK_SIZE];
+        if (c->mode == MODE_CBC) memcpy(iv, chain, AES_BLOCK_SIZE);
+        if (c->mode == MODE_CTR) counter_at(c->iv, first, iv);
+        int out_len = 0;
+        ok = ok && EVP_CipherInit_ex(ctx, c->cipher, NULL, c->key, c->mode == MODE_ECB ? NULL : iv, c->encrypt)
+                && EVP_CIPHER_CTX_set_padding(ctx, 0)
+                && EVP_CipherUpdate(ctx, out, &out_len, in, (int)units_in_bytes(c, first, count));
+    }
+
+    EVP_CIPHER_CTX_free(ctx);
+    return ok ? 0 : 1;
+}
+
+// Maps [offset, offset + length) of fd. mmap wants a page-aligned offset, so the mapping may start
+// a little earlier; *base and *base_len describe it for unmap_region. Returns NULL on failure.
+unsigned char* map_region(int fd, long long offset, long long length, int writable, void** base, size_t* base_len) {
+    static unsigned char empty;
+    *base = NULL;
+    *base_len = 0;
+    if (length == 0) return &empty;
+
+    long long aligned = offset - offset % sysconf(_SC_PAGESIZE);
+    void* mapped = mmap(NULL, (size_t)(offset - aligned + length), writable ? PROT_READ | PROT_WRITE : PROT_READ,
+                        MAP_SHARED, fd, (off_t)aligned);
+    if (mapped == MAP_FAILED) return NULL;
+    *base = mapped;
+    *base_len = (size_t)(offset - aligned + length);
+    return (unsigned char*)mapped + (offset - aligned);
+}
 
-    if (!filename || !operation || !mode || !key_string || (strcmp(mode, "cbc") == 0 && !iv_hex)) {
+void unmap_region(void* base, size_t base_len) {
+    if (base) munmap(base, base_len);
+}
+
+// Identifies the job a checkpoint belongs to: mode, direction, key, IV and the input's size and
+// modification time, hashed so the key is not written out.
+unsigned long long job_fingerprint(const cipher_job_t* c, int keylen_bits, const char* iv_hex,
+                                   long long file_size, long long mtime_ns) {
+    char text[256];
+    unsigned char digest[EVP_MAX_MD_SIZE];
+    unsigned int digest_len = 0;
+    int len = snprintf(text, sizeof(text), "%d|%d|%d|%s|%lld|%lld|", c->mode, c->encrypt, keylen_bits,
+                       iv_hex ? iv_hex : "-", file_size, mtime_ns);
+    EVP_MD_CTX* md = EVP_MD_CTX_new();
+    EVP_DigestInit_ex(md, EVP_sha256(), NULL);
+    EVP_DigestUpdate(md, text, len);
+    EVP_DigestUpdate(md, c->key, keylen_bits / 8);
+    EVP_DigestFinal_ex(md, digest, &digest_len);
+    EVP_MD_CTX_free(md);
+
+    unsigned long long fingerprint = 0;
+    for (int i = 0; i < 8; i++) fingerprint = fingerprint << 8 | digest[i];
+    return fingerprint;
+}
+
+// Units of the job already in its .part output, as recorded by an interrupted run, or 0 to start
+// over. Only whole segments are recorded, and never the last one.
+long read_checkpoint(const char* ckpt_filename, unsigned long long fingerprint, long segment_units,
+                     long total_units) {
+    FILE* f = fopen(ckpt_filename, "r");
+    if (!f) return 0;
+    unsigned long long recorded = 0;
+    long units = 0;
+    int fields = fscanf(f, "%llx %ld", &recorded, &units);
+    fclose(f);
+    if (fields != 2 || recorded != fingerprint || units <= 0 || units >= total_units || units % segment_units != 0)
+        return 0;
+    return units;
+}
+
+// Records that the first `units` units are durably in the .part output. The file is replaced
+// atomically, so a crash leaves either the previous checkpoint or this one.
+void write_checkpoint(const char* ckpt_filename, unsigned long long fingerprint, long units) {
+    char tmp_filename[1080];
+    snprintf(tmp_filename, sizeof(tmp_filename), "%s.tmp", ckpt_filename);
+    FILE* f = fopen(tmp_filename, "w");
+    if (!f) return;
+    fprintf(f, "%016llx %ld\n", fingerprint, units);
+    int ok = fflush(f) == 0 && fsync(fileno(f)) == 0;
+    if (fclose(f) != 0 || !ok || rename(tmp_filename, ckpt_filename) != 0) unlink(tmp_filename);
+}
+
+// Encrypts or decrypts one file. Collective: every rank must call it with the same job, and all
+// ranks return the same status (0 on success) except for failures found by rank 0 at the end
+// (padding, renaming the output), which only rank 0 reports.
+//
+// The file is processed in segments of at most SEGMENT_SIZE input bytes: rank 0 maps a segment
+// of the input and of the output file, scatters the input straight from its mapping and gathers
+// the results straight into the output's. Sizes and unit indexes are 64-bit, so files over 2 GB
+// work. The output is written to "<name>.part" and renamed once complete.
+//
+// After each segment but the last, rank 0 syncs the output and records the progress in
+// "<name>.part.ckpt". If mpirun dies, running the same job again on the same input continues
+// after the last recorded segment instead of starting over.
+int process_job(int rank, int size, job_t* job) {
+    char *filename = job->filename, *operation = job->operation, *mode = job->mode;
+    char *key_string = job->key_string, *iv_hex = job->iv_hex;
+    int keylen_bits = job->keylen_bits;
+
+    cipher_job_t c = {0};
+    c.mode = mode ? parse_mode(mode) : -1;
+    c.encrypt = operation && strcmp(operation, "encrypt") == 0;
+
+    if (!filename || !operation || !mode || !key_string || (c.mode != MODE_ECB && !iv_hex)) {
         if (rank == 0) fprintf(stderr, "Missing required arguments\n");
-        MPI_Finalize();
+        return 1;
+    }
+    if (!c.encrypt && strcmp(operation, "decrypt") != 0) {
+        if (rank == 0) fprintf(stderr, "Unsupported operation: %s\n", operation);
         return 1;
     }
 
     int key_len_bytes = keylen_bits / 8;
-    unsigned char key[32] = {0};
-    unsigned char iv[16] = {0};
     key_string[strcspn(key_string, "\r\n")] = '\0';
 
     if ((int)strlen(key_string) != key_len_bytes) {
         if (rank == 0) fprintf(stderr, "Invalid key length\n");
-        MPI_Finalize();
         return 1;
     }
-    memcpy(key, key_string, key_len_bytes);
-
-    if (strcmp(mode, "cbc") == 0) {
-        if (strlen(iv_hex) != 32) {
-            if (rank == 0) fprintf(stderr, "IV must be 32 hex characters (16 bytes) in CBC mode\n");
-            MPI_Finalize();
-            return 1;
-        }
+    memcpy(c.key, key_string, key_len_bytes);
 
-        #pragma omp parallel for
-        for (int i = 0; i < AES_BLOCK_SIZE; i++) {
-            sscanf(iv_hex + 2 * i, "%2hhx", &iv[i]);
-        }
+    c.cipher = c.mode < 0 ? NULL : select_cipher(c.mode, key_len_bytes);
+    if (!c.cipher) {
+        if (rank == 0) fprintf(stderr, "Unsupported AES mode or key length\n");
+        return 1;
     }
 
-    unsigned char *file_buffer = NULL;
-    int file_size = 0;
-    if (rank == 0) {
-        FILE* f = fopen(filename, "rb");
-        if (!f) {
-            fprintf(stderr, "Cannot open file %s\n", filename);
-            MPI_Abort(MPI_COMM_WORLD, 1);
+    if (c.mode != MODE_ECB) {
+        // GCM only uses the first 12 bytes as its nonce, so a 24-character IV is enough there
+        size_t iv_len = strlen(iv_hex);
+        if (iv_len != 32 && !(c.mode == MODE_GCM && iv_len == 2 * GCM_NONCE_SIZE)) {
+            if (rank == 0) fprintf(stderr, "IV must be 32 hex characters (16 bytes) in %s mode\n", mode);
+            return 1;
         }
-        fseek(f, 0, SEEK_END);
-        file_size = ftell(f);
-        fseek(f, 0, SEEK_SET);
-        file_buffer = malloc(file_size);
-        fread(file_buffer, 1, file_size, f);
-        fclose(f);
-
-        if (strcmp(operation, "encrypt") == 0) {
-            int pad_len = AES_BLOCK_SIZE - (file_size % AES_BLOCK_SIZE);
-            if (pad_len == 0) pad_len = AES_BLOCK_SIZE;
-            int padded_size = file_size + pad_len;
-            unsigned char *new_buffer = realloc(file_buffer, padded_size);
-            if (!new_buffer) {
-                fprintf(stderr, "Memory allocation failed for padding\n");
-                free(file_buffer);
-                MPI_Abort(MPI_COMM_WORLD, 1);
-            }
-            file_buffer = new_buffer;
-
-            #pragma omp parallel for
-            for (int i = 0; i < pad_len; i++) {
-                file_buffer[file_size + i] = pad_len;
-            }
-            file_size = padded_size;
-        } else {
-            if (file_size % AES_BLOCK_SIZE != 0) {
-                fprintf(stderr, "Data size must be multiple of AES block size for decryption\n");
-                free(file_buffer);
-                MPI_Abort(MPI_COMM_WORLD, 1);
-            }
+        for (size_t i = 0; i < iv_len / 2; i++) {
+            sscanf(iv_hex + 2 * i, "%2hhx", &c.iv[i]);
         }
     }
 
-    MPI_Bcast(&file_size, 1, MPI_INT, 0, MPI_COMM_WORLD);
+    // ECB and CBC pad to whole blocks; CTR and GCM are stream modes and keep the exact length
+    int padded_mode = c.mode == MODE_ECB || c.mode == MODE_CBC;
 
-    if (file_size % AES_BLOCK_SIZE != 0) {
-        if (rank == 0) fprintf(stderr, "Data size must be multiple of AES block size\n");
-        MPI_Abort(MPI_COMM_WORLD, 1);
-    }
+    char output_filename[1024];
+    char part_filename[1040];
+    if (c.encrypt)
+        snprintf(output_filename, sizeof(output_filename), "%s.out", filename);
+    else
+        get_decrypted_filename(filename, output_filename);
+    snprintf(part_filename, sizeof(part_filename), "%s.part", output_filename);
 
-    int total_blocks = file_size / AES_BLOCK_SIZE;
-    int blocks_per_proc = total_blocks / size;
-    int blocks_remainder = total_blocks % size;
+    char ckpt_filename[1060];
+    snprintf(ckpt_filename, sizeof(ckpt_filename), "%s.ckpt", part_filename);
 
-    int local_blocks = blocks_per_proc + (rank < blocks_remainder ? 1 : 0);
-    int local_size = local_blocks * AES_BLOCK_SIZE;
-
-    int *counts = malloc(size * sizeof(int));
-    int *displs = malloc(size * sizeof(int));
-    int offset_blocks = 0;
-
-    for (int i = 0; i < size; i++) {
-        int blocks = blocks_per_proc + (i < blocks_remainder ? 1 : 0);
-        counts[i] = blocks * AES_BLOCK_SIZE;
-        displs[i] = offset_blocks * AES_BLOCK_SIZE;
-        offset_blocks += blocks;
+    int in_fd = -1, out_fd = -1;
+    long long file_size = 0, in_mtime_ns = 0;
+    if (rank == 0) {
+        struct stat st;
+        in_fd = open(filename, O_RDONLY);
+        if (in_fd < 0 || fstat(in_fd, &st) != 0) {
+            fprintf(stderr, "Cannot open file %s\n", filename);
+            file_size = -1;
+        } else {
+            file_size = (long long)st.st_size;
+            in_mtime_ns = (long long)st.st_mtim.tv_sec * 1000000000LL + st.st_mtim.tv_nsec;
+        }
+        if (file_size > 0 && padded_mode && !c.encrypt && file_size % AES_BLOCK_SIZE != 0) {
+            fprintf(stderr, "Data size must be multiple of AES block size for decryption\n");
+            file_size = -1;
+        }
     }
 
-    unsigned char *local_data_in = malloc(local_size);
-    MPI_Scatterv(file_buffer, counts, displs, MPI_UNSIGNED_CHAR,
-                 local_data_in, local_size, MPI_UNSIGNED_CHAR,
-                 0, MPI_COMM_WORLD);
-
-    if (rank == 0) SAFE_FREE(file_buffer);
-
-    EVP_CIPHER_CTX *ctx = EVP_CIPHER_CTX_new();
-    const EVP_CIPHER* cipher = NULL;
-    if (strcmp(mode, "cbc") == 0) {
-        if (key_len_bytes == 16) cipher = EVP_aes_128_cbc();
-        else if (key_len_bytes == 24) cipher = EVP_aes_192_cbc();
-        else if (key_len_bytes == 32) cipher = EVP_aes_256_cbc();
-    } else if (strcmp(mode, "ecb") == 0) {
-        if (key_len_bytes == 16) cipher = EVP_aes_128_ecb();
-        else if (key_len_bytes == 24) cipher = EVP_aes_192_ecb();
-        else if (key_len_bytes == 32) cipher = EVP_aes_256_ecb();
-    }
+    // A negative size tells the other ranks that rank 0 could not load the input
+    MPI_Bcast(&file_size, 1, MPI_LONG_LONG, 0, MPI_COMM_WORLD);
 
-    if (!cipher) {
-        if (rank == 0) fprintf(stderr, "Unsupported AES mode or key length\n");
-        SAFE_FREE(local_data_in);
-        free(counts);
-        free(displs);
-        EVP_CIPHER_CTX_free(ctx);
-        MPI_Finalize();
+    if (file_size < 0) {
+        if (in_fd >= 0) close(in_fd);
         return 1;
     }
 
-    int init_result = (strcmp(operation, "encrypt") == 0) ?
-        EVP_EncryptInit_ex(ctx, cipher, NULL, key, strcmp(mode, "ecb") == 0 ? NULL : iv) :
-        EVP_DecryptInit_ex(ctx, cipher, NULL, key, strcmp(mode, "ecb") == 0 ? NULL : iv);
-
-    if (!init_result) {
-        fprintf(stderr, "EVP init failed\n");
-        SAFE_FREE(local_data_in);
-        free(counts);
-        free(displs);
-        EVP_CIPHER_CTX_free(ctx);
-        MPI_Abort(MPI_COMM_WORLD, 1);
+    // Encryption appends the PKCS#7 padding after the last byte of the file, a whole block if the
+    // size is already aligned
+    int pad_len = padded_mode && c.encrypt ? AES_BLOCK_SIZE - (int)(file_size % AES_BLOCK_SIZE) : 0;
+    c.data_size = file_size + pad_len;
+    if (c.mode == MODE_GCM) {
+        c.unit_in = c.encrypt ? GCM_CHUNK_SIZE : GCM_CHUNK_SIZE + GCM_TAG_SIZE;
+        c.unit_out = c.encrypt ? GCM_CHUNK_SIZE + GCM_TAG_SIZE : GCM_CHUNK_SIZE;
+        // An empty input still gets one (empty) chunk, so its tag proves nothing was cut off
+        c.total_units = file_size == 0 ? 1 : (long)((file_size + c.unit_in - 1) / c.unit_in);
+        if (!c.encrypt && units_in_bytes(&c, c.total_units - 1, 1) < GCM_TAG_SIZE) {
+            if (rank == 0) fprintf(stderr, "Truncated GCM input\n");
+            if (in_fd >= 0) close(in_fd);
+            return 1;
+        }
+    } else {
+        c.unit_in = c.unit_out = AES_BLOCK_SIZE;
+        c.total_units = (long)((c.data_size + AES_BLOCK_SIZE - 1) / AES_BLOCK_SIZE);
+    }
+    long long total_out = units_out_bytes(&c, 0, c.total_units);
+
+    // CBC encryption chains every block to the previous one, so it runs as one pass on rank 0,
+    // carrying the chain from one segment to the next
+    int sequential = c.mode == MODE_CBC && c.encrypt;
+    long segment_units = SEGMENT_SIZE / c.unit_in;
+    unsigned char chain[AES_BLOCK_SIZE];
+    memcpy(chain, c.iv, AES_BLOCK_SIZE);
+
+    int error = 0;
+    long start_unit = 0;
+    unsigned long long fingerprint = 0;
+    if (rank == 0) {
+        fingerprint = job_fingerprint(&c, keylen_bits, iv_hex, file_size, in_mtime_ns);
+        start_unit = read_checkpoint(ckpt_filename, fingerprint, segment_units, c.total_units);
+        struct stat part_st;
+        if (start_unit > 0 && (stat(part_filename, &part_st) != 0 || (long long)part_st.st_size != total_out)) {
+            start_unit = 0;
+        }
+        out_fd = open(part_filename, O_RDWR | O_CREAT | (start_unit > 0 ? 0 : O_TRUNC), 0644);
+        if (out_fd < 0 || ftruncate(out_fd, (off_t)total_out) != 0) {
+            fprintf(stderr, "Cannot open output file %s\n", part_filename);
+            error = 1;
+        } else if (start_unit > 0) {
+            printf("Resuming %s after %ld of %ld units\n", filename, start_unit, c.total_units);
+            // The chain continues from the last ciphertext block already written
+            if (sequential && pread(out_fd, chain, AES_BLOCK_SIZE,
+                                    (off_t)(units_out_bytes(&c, 0, start_unit) - AES_BLOCK_SIZE)) != AES_BLOCK_SIZE) {
+                fprintf(stderr, "Cannot read the CBC chain from %s\n", part_filename);
+                error = 1;
+            }
+        }
     }
+    MPI_Bcast(&error, 1, MPI_INT, 0, MPI_COMM_WORLD);
+    MPI_Bcast(&start_unit, 1, MPI_LONG, 0, MPI_COMM_WORLD);
+
+    int *counts_in = malloc(size * sizeof(int));
+    int *displs_in = malloc(size * sizeof(int));
+    int *counts_out = malloc(size * sizeof(int));
+    int *displs_out = malloc(size * sizeof(int));
+
+    for (long seg_first = start_unit; !error && seg_first < c.total_units; seg_first += segment_units) {
+        long seg_units = c.total_units - seg_first < segment_units ? c.total_units - seg_first : segment_units;
+        long long seg_in_offset = units_in_bytes(&c, 0, seg_first);
+        long long seg_out_offset = units_out_bytes(&c, 0, seg_first);
+        int seg_in = (int)units_in_bytes(&c, seg_first, seg_units);
+        int seg_out = (int)units_out_bytes(&c, seg_first, seg_units);
+
+        int local_first = 0, local_units = 0;
+        for (int i = 0, first = 0; i < size; i++) {
+            int units = sequential ? (i == 0 ? (int)seg_units : 0)
+                      : (int)(seg_units / size + (i < seg_units % size ? 1 : 0));
+            counts_in[i] = (int)units_in_bytes(&c, seg_first + first, units);
+            displs_in[i] = (int)units_in_bytes(&c, seg_first, first);
+            counts_out[i] = (int)units_out_bytes(&c, seg_first + first, units);
+            displs_out[i] = (int)units_out_bytes(&c, seg_first, first);
+            if (i == rank) {
+                local_first = first;
+                local_units = units;
+            }
+            first += units;
+        }
 
-    EVP_CIPHER_CTX_set_padding(ctx, 0);
+        unsigned char *seg_in_data = NULL, *seg_out_data = NULL, *padded = NULL;
+        void *in_base = NULL, *out_base = NULL;
+        size_t in_base_len = 0, out_base_len = 0;
+        if (rank == 0) {
+            long long readable = file_size - seg_in_offset < seg_in ? file_size - seg_in_offset : seg_in;
+            seg_in_data = map_region(in_fd, seg_in_offset, readable, 0, &in_base, &in_base_len);
+            seg_out_data = map_region(out_fd, seg_out_offset, seg_out, 1, &out_base, &out_base_len);
+            if (seg_in_data && readable < seg_in) {
+                // The padding is not in the file: the last segment goes out from a padded copy
+                padded = malloc(seg_in);
+                if (padded) {
+                    memcpy(padded, seg_in_data, readable);
+                    memset(padded + readable, pad_len, seg_in - readable);
+                }
+                seg_in_data = padded;
+            }
+            if (!seg_in_data || !seg_out_data) {
+                fprintf(stderr, "Cannot map segment at offset %lld of %s\n", seg_in_offset, filename);
+                error = 1;
+            }
+        }
+        MPI_Bcast(&error, 1, MPI_INT, 0, MPI_COMM_WORLD);
+
+        unsigned char *local_in = NULL, *local_out = NULL;
+        if (!error) {
+            local_in = malloc(counts_in[rank] > 0 ? counts_in[rank] : 1);
+            MPI_Scatterv(seg_in_data, counts_in, displs_in, MPI_UNSIGNED_CHAR,
+                         local_in, counts_in[rank], MPI_UNSIGNED_CHAR,
+                         0, MPI_COMM_WORLD);
+
+            // CBC decryption: each rank's first block chains from the ciphertext block before its
+            // share, which for the first rank lies in the previous segment
+            if (c.mode == MODE_CBC && !c.encrypt) {
+                unsigned char *chains = NULL;
+                if (rank == 0) {
+                    chains = malloc(size * AES_BLOCK_SIZE);
+                    for (int i = 0; i < size; i++) {
+                        long long at = seg_in_offset + displs_in[i];
+                        if (at == 0) {
+                            memcpy(chains + i * AES_BLOCK_SIZE, c.iv, AES_BLOCK_SIZE);
+                        } else if (displs_in[i] > 0) {
+                            memcpy(chains + i * AES_BLOCK_SIZE, seg_in_data + displs_in[i] - AES_BLOCK_SIZE,
+                                   AES_BLOCK_SIZE);
+                        } else if (pread(in_fd, chains + i * AES_BLOCK_SIZE, AES_BLOCK_SIZE,
+                                         (off_t)(at - AES_BLOCK_SIZE)) != AES_BLOCK_SIZE) {
+                            memset(chains + i * AES_BLOCK_SIZE, 0, AES_BLOCK_SIZE); // fails the padding check
+                        }
+                    }
+                }
+                MPI_Scatter(chains, AES_BLOCK_SIZE, MPI_UNSIGNED_CHAR, chain, AES_BLOCK_SIZE, MPI_UNSIGNED_CHAR,
+                            0, MPI_COMM_WORLD);
+                SAFE_FREE(chains);
+            }
 
-    unsigned char *local_out = malloc(local_size);
-    int block_count = local_size / AES_BLOCK_SIZE;
-    int thread_error = 0;
+            local_out = malloc(counts_out[rank] > 0 ? counts_out[rank] : 1);
+            if (sequential) {
+                error = cipher_units(&c, seg_first + local_first, local_units, local_in, local_out, chain);
+                if (rank == 0 && counts_out[0] >= AES_BLOCK_SIZE) {
+                    memcpy(chain, local_out + counts_out[0] - AES_BLOCK_SIZE, AES_BLOCK_SIZE);
+                }
+            } else {
+                #pragma omp parallel reduction(|:error)
+                {
+                    int threads = omp_get_num_threads();
+                    int thread = omp_get_thread_num();
+                    int begin = (int)((long)local_units * thread / threads);
+                    int end = (int)((long)local_units * (thread + 1) / threads);
+                    long unit = seg_first + local_first;
+                    long in_offset = (long)units_in_bytes(&c, unit, begin);
+                    long out_offset = (long)units_out_bytes(&c, unit, begin);
+                    const unsigned char *thread_chain = begin == 0 ? chain : local_in + in_offset - AES_BLOCK_SIZE;
+
+                    error |= cipher_units(&c, unit + begin, end - begin, local_in + in_offset,
+                                          local_out + out_offset, thread_chain);
+                }
+            }
+            if (error) {
+                fprintf(stderr, "%s failed on rank %d%s\n", operation, rank,
+                        c.mode == MODE_GCM && !c.encrypt ? " (authentication failed)" : "");
+            }
+            SAFE_FREE(local_in);
+
+            // Every rank has to agree before the gather, or a failed rank would leave the others waiting
+            MPI_Allreduce(MPI_IN_PLACE, &error, 1, MPI_INT, MPI_MAX, MPI_COMM_WORLD);
+            if (!error) {
+                MPI_Gatherv(local_out, counts_out[rank], MPI_UNSIGNED_CHAR,
+                            seg_out_data, counts_out, displs_out, MPI_UNSIGNED_CHAR,
+                            0, MPI_COMM_WORLD);
+            }
+            SAFE_FREE(local_out);
+        }
 
-    #pragma omp parallel
-    {
-        EVP_CIPHER_CTX *tctx = EVP_CIPHER_CTX_new();
-        EVP_CIPHER_CTX_copy(tctx, ctx);
-        EVP_CIPHER_CTX_set_padding(tctx, 0);
+        if (rank == 0 && !error && seg_first + seg_units < c.total_units
+                && msync(out_base, out_base_len, MS_SYNC) == 0) {
+            write_checkpoint(ckpt_filename, fingerprint, seg_first + seg_units);
+        }
 
-        #pragma omp for
-        for (int b = 0; b < block_count; b++) {
-            int tlen = 0;
-            unsigned char *in_ptr = local_data_in + b * AES_BLOCK_SIZE;
-            unsigned char *out_ptr = local_out + b * AES_BLOCK_SIZE;
+        SAFE_FREE(padded);
+        unmap_region(in_base, in_base_len);
+        unmap_region(out_base, out_base_len);
+    }
 
-            int res = (strcmp(operation, "encrypt") == 0) ?
-                EVP_EncryptUpdate(tctx, out_ptr, &tlen, in_ptr, AES_BLOCK_SIZE) :
-                EVP_DecryptUpdate(tctx, out_ptr, &tlen, in_ptr, AES_BLOCK_SIZE);
+    free(counts_in);
+    free(displs_in);
+    free(counts_out);
+    free(displs_out);
 
-            if (!res) {
-                #pragma omp critical
-                thread_error = 1;
+    if (rank == 0) {
+        close(in_fd);
+
+        long long final_size = total_out;
+        if (!error && !c.encrypt && padded_mode) {
+            unsigned char last_block[AES_BLOCK_SIZE];
+            int pad = total_out >= AES_BLOCK_SIZE
+                      && pread(out_fd, last_block, AES_BLOCK_SIZE, (off_t)(total_out - AES_BLOCK_SIZE)) == AES_BLOCK_SIZE
+                      ? pkcs7_pad_length(last_block) : -1;
+            if (pad < 0) {
+                fprintf(stderr, "Invalid PKCS#7 padding\n");
+                error = 1;
             }
+            final_size = total_out - pad;
+        }
+        if (out_fd >= 0) {
+            if (!error && ftruncate(out_fd, (off_t)final_size) != 0) error = 1;
+            if (close(out_fd) != 0) error = 1;
+        }
+        if (!error && rename(part_filename, output_filename) != 0) {
+            fprintf(stderr, "Cannot write output file %s\n", output_filename);
+            error = 1;
+        }
+        // A failure that got this far is not an interruption: running the job again starts over
+        unlink(ckpt_filename);
+        if (error) {
+            unlink(part_filename);
+            return 1;
         }
 
-        EVP_CIPHER_CTX_free(tctx);
+        printf("Operation '%s' completed, output file: %s\n", operation, output_filename);
     }
 
-    if (thread_error) {
-        fprintf(stderr, "%s failed on rank %d\n", operation, rank);
-        SAFE_FREE(local_data_in);
-        SAFE_FREE(local_out);
-        free(counts);
-        free(displs);
-        EVP_CIPHER_CTX_free(ctx);
-        MPI_Abort(MPI_COMM_WORLD, 1);
-    }
+    return error;
+}
 
-    SAFE_FREE(local_data_in);
+// Runs one job given as tab-separated fields: file operation mode keylen key iv ("-" for none).
+// Collective, like process_job. Modifies line.
+int run_job_line(int rank, int size, char* line, const char* label) {
+    char* fields[MANIFEST_FIELDS];
+    if (split_fields(line, fields, MANIFEST_FIELDS) != MANIFEST_FIELDS) {
+        if (rank == 0) fprintf(stderr, "Malformed job %s\n", label);
+        return 1;
+    }
+    job_t job = {
+        .filename = fields[0],
+        .operation = fields[1],
+        .mode = fields[2],
+        .keylen_bits = atoi(fields[3]),
+        .key_string = fields[4],
+        .iv_hex = strcmp(fields[5], "-") == 0 ? NULL : fields[5]
+    };
+    return process_job(rank, size, &job);
+}
 
+// Batch mode: one job per manifest line (see run_job_line for the fields).
+// Rank 0 reads the manifest and broadcasts it, then the jobs run one after another on all ranks.
+// For every line rank 0 prints "RESULT\t<line index>\tok" or "RESULT\t<line index>\terror".
+int run_manifest(int rank, int size, const char* manifest) {
+    long length = 0;
+    char* text = NULL;
     if (rank == 0) {
-        int final_len = 0;
-        if (strcmp(operation, "encrypt") == 0)
-            EVP_EncryptFinal_ex(ctx, local_out + local_size, &final_len);
-        else
-            EVP_DecryptFinal_ex(ctx, local_out + local_size, &final_len);
+        FILE* f = fopen(manifest, "rb");
+        if (!f) {
+            fprintf(stderr, "Cannot open manifest %s\n", manifest);
+            length = -1;
+        } else {
+            fseek(f, 0, SEEK_END);
+            length = ftell(f);
+            fseek(f, 0, SEEK_SET);
+            text = malloc(length + 1);
+            length = (long)fread(text, 1, length, f);
+            fclose(f);
+        }
     }
 
-    EVP_CIPHER_CTX_free(ctx);
-
-    unsigned char *output_buffer = NULL;
-    if (rank == 0) {
-        output_buffer = malloc(file_size);
+    MPI_Bcast(&length, 1, MPI_LONG, 0, MPI_COMM_WORLD);
+    if (length < 0) {
+        return 1;
+    }
+    if (rank != 0) text = malloc(length + 1);
+    MPI_Bcast(text, (int)length, MPI_CHAR, 0, MPI_COMM_WORLD);
+    text[length] = '\0';
+
+    int index = 0;
+    char* line = text;
+    while (line && *line) {
+        char* next = strchr(line, '\n');
+        if (next) *next++ = '\0';
+        line[strcspn(line, "\r")] = '\0';
+
+        if (*line) {
+            char label[32];
+            snprintf(label, sizeof(label), "on manifest line %d", index);
+            int status = run_job_line(rank, size, line, label);
+            if (rank == 0) {
+                printf("RESULT\t%d\t%s\n", index, status == 0 ? "ok" : "error");
+                fflush(stdout);
+            }
+            index++;
+        }
+        line = next;
     }
 
-    MPI_Gatherv(local_out, local_size, MPI_UNSIGNED_CHAR,
-                output_buffer, counts, displs, MPI_UNSIGNED_CHAR,
-                0, MPI_COMM_WORLD);
+    SAFE_FREE(text);
+    return 0;
+}
 
-    SAFE_FREE(local_out);
-    free(counts);
-    free(displs);
+// Worker mode: stays up and takes jobs from stdin (mpirun forwards it to rank 0), one per line:
+//   JOB <id> <job fields as in run_job_line>     (tab separated)
+//   QUIT
+// Rank 0 broadcasts each line to all ranks, prints "START\t<id>" when a job begins (the caller's
+// timeout runs from there, not from its place in the queue) and answers every job with
+// "RESULT\t<id>\tok|error". End of input stops the worker like QUIT.
+int run_server(int rank, int size) {
+    size_t capacity = 4096;
+    char* line = malloc(capacity);
 
     if (rank == 0) {
-        unsigned char* final_data = NULL;
-        int final_size = 0;
-        int need_to_free_final_data = 0;
+        printf("READY\n");
+        fflush(stdout);
+    }
 
-        if (strcmp(operation, "decrypt") == 0) {
-            final_size = pkcs7_unpad(output_buffer, file_size, &final_data);
-            if (final_size < 0) {
-                fprintf(stderr, "Invalid PKCS#7 padding\n");
-                SAFE_FREE(output_buffer);
-                MPI_Finalize();
-                return 1;
+    while (1) {
+        long length = -1;
+        if (rank == 0) {
+            size_t used = 0;
+            int c;
+            while ((c = getchar()) != EOF && c != '\n') {
+                if (used + 1 >= capacity) {
+                    capacity *= 2;
+                    line = realloc(line, capacity);
+                }
+                line[used++] = (char)c;
             }
-            need_to_free_final_data = 1;
-        } else {
-            final_data = output_buffer;
-            final_size = file_size;
-            need_to_free_final_data = 0;
+            if (c != EOF || used > 0) length = (long)used;
         }
 
-        char output_filename[1024];
-        if (strcmp(operation, "decrypt") == 0)
-            get_decrypted_filename(filename, output_filename);
-        else
-            snprintf(output_filename, sizeof(output_filename), "%s.out", filename);
-
-        FILE *fout = fopen(output_filename, "wb");
-        if (!fout) {
-            fprintf(stderr, "Cannot open output file %s\n", output_filename);
-            if (need_to_free_final_data) SAFE_FREE(final_data);
-            else SAFE_FREE(output_buffer);
-            MPI_Finalize();
-            return 1;
+        MPI_Bcast(&length, 1, MPI_LONG, 0, MPI_COMM_WORLD);
+        if (length < 0) break;
+        if (rank != 0 && (size_t)length + 1 > capacity) {
+            capacity = (size_t)length + 1;
+            line = realloc(line, capacity);
+        }
+        MPI_Bcast(line, (int)length, MPI_CHAR, 0, MPI_COMM_WORLD);
+        line[length] = '\0';
+        line[strcspn(line, "\r")] = '\0';
+
+        if (strcmp(line, "QUIT") == 0) break;
+        if (strncmp(line, "JOB\t", 4) != 0) {
+            if (rank == 0) fprintf(stderr, "Unknown command: %s\n", line);
+            continue;
+        }
+
+        char* id = line + 4;
+        char* fields = strchr(id, '\t');
+        int status = 1;
+        if (fields) {
+            *fields++ = '\0';
+            if (rank == 0) {
+                printf("START\t%s\n", id);
+                fflush(stdout);
+            }
+            status = run_job_line(rank, size, fields, id);
+        } else if (rank == 0) {
+            fprintf(stderr, "Malformed job line\n");
+        }
+        if (rank == 0) {
+            printf("RESULT\t%s\t%s\n", id, status == 0 ? "ok" : "error");
+            fflush(stdout);
         }
-        fwrite(final_data, 1, final_size, fout);
-        fclose(fout);
+    }
 
-        if (need_to_free_final_data)
-            SAFE_FREE(final_data);
-        else
-            SAFE_FREE(output_buffer);
+    SAFE_FREE(line);
+    return 0;
+}
 
-        printf("Operation '%s' completed, output file: %s\n", operation, output_filename);
+int main(int argc, char** argv) {
+    MPI_Init(&argc, &argv);
+    int rank, size;
+    MPI_Comm_rank(MPI_COMM_WORLD, &rank);
+    MPI_Comm_size(MPI_COMM_WORLD, &size);
+
+    job_t job = { .keylen_bits = 128 };
+    char* manifest = NULL;
+    int serve = 0;
+
+    for (int i = 1; i < argc; i++) {
+        if (strcmp(argv[i], "--file") == 0) job.filename = argv[++i];
+        else if (strcmp(argv[i], "--operation") == 0) job.operation = argv[++i];
+        else if (strcmp(argv[i], "--mode") == 0) job.mode = argv[++i];
+        else if (strcmp(argv[i], "--key") == 0) job.key_string = argv[++i];
+        else if (strcmp(argv[i], "--iv") == 0) job.iv_hex = argv[++i];
+        else if (strcmp(argv[i], "--keylen") == 0) job.keylen_bits = atoi(argv[++i]);
+        else if (strcmp(argv[i], "--manifest") == 0) manifest = argv[++i];
+        else if (strcmp(argv[i], "--serve") == 0) serve = 1;
     }
 
+    int status = serve ? run_server(rank, size)
+               : manifest ? run_manifest(rank, size, manifest)
+               : process_job(rank, size, &job);
+
     MPI_Finalize();
-    return 0;
+    return status;
 }
@@ -2,7 +2,9 @@ import express from "express";
 import db from "../db/conn.mjs";
 import { ObjectId, GridFSBucket } from "mongodb";
 import multer from "multer";
-import { Readable } from "stream";
+import crypto from "crypto";
+import { Readable, Transform } from "stream";
+import { pipeline } from "stream/promises";
 
 const router = express.Router();
 
@@ -10,6 +12,19 @@ const router = express.Router();
 const storage = multer.memoryStorage();
 const upload = multer({ storage });
 
+// Large processed files arrive in segments, each stored as its own GridFS file
+const segmentBucket = () => new GridFSBucket(db, { bucketName: "processedSegments" });
+
+async function deleteSegments(docId, keep = []) {
+  const bucket = segmentBucket();
+  const segments = await bucket.find({ "metadata.docId": docId }).toArray();
+  for (const segment of segments) {
+    if (!keep.some(id => id.equals(segment._id))) {
+      await bucket.delete(segment._id);
+    }
+  }
+}
+
 // Get a list of 50 posts
 router.get("/", async (req, res) => {
   let collection = await db.collection("data");
@@ -73,6 +88,21 @@ router.post("/receive-form", async (req, res) => {
   });
 });
 
+// Stores many request forms with one insert; the IDs come back in the order of the array
+router.post("/receive-form/bulk", async (req, res) => {
+  if (!Array.isArray(req.body) || req.body.length === 0) {
+    return res.status(400).json({ error: "Expected a non-empty array of forms." });
+  }
+  let collection = await db.collection("data");
+  const date = new Date();
+  const documents = req.body.map(form => ({ ...form, date }));
+  let result = await collection.insertMany(documents, { ordered: true });
+  res.status(200).json({
+    acknowledged: result.acknowledged,
+    insertedIds: documents.map((_, i) => result.insertedIds[i])
+  });
+});
+
 // Update the post with a new comment
 router.delete("/:id", async (req, res) => {
   try {
@@ -103,6 +133,9 @@ router.delete("/:id", async (req, res) => {
       }
     }
 
+    // And any segments of a large processed file
+    await deleteSegments(id);
+
     // Delete the main document
     const result = await collection.deleteOne({ _id: docId });
 
@@ -177,6 +210,124 @@ router.post("/uploadProcessedFile", upload.single("file"), async (req, res) => {
   }
 });
 
+/**
+ * Segmented upload of large processed files; memory use stays bounded by the stream buffers.
+ * GET lists the segments already stored, so an interrupted upload resumes where it stopped.
+ * PUT stores one segment (raw body, optional X-Segment-Sha256 to verify), replacing an older copy.
+ * POST .../complete takes the manifest {fileName, size, segments: [{index, length, sha256}]},
+ * checks it against the stored segments and attaches them to the document in order.
+ */
+router.get("/uploadProcessedFile/:id/segments", async (req, res) => {
+  const { id } = req.params;
+  if (!ObjectId.isValid(id)) {
+    return res.status(400).json({ error: "Invalid 'id' format" });
+  }
+  const segments = await segmentBucket().find({ "metadata.docId": id }).toArray();
+  res.status(200).json({
+    segments: segments.map(segment => ({
+      index: segment.metadata.index,
+      length: segment.length,
+      sha256: segment.metadata.sha256
+    }))
+  });
+});
+
+router.put("/uploadProcessedFile/:id/segments/:index", async (req, res) => {
+  const { id } = req.params;
+  const index = Number.parseInt(req.params.index, 10);
+  if (!ObjectId.isValid(id) || !(index >= 0)) {
+    return res.status(400).json({ error: "Invalid 'id' or segment index" });
+  }
+
+  const bucket = segmentBucket();
+  const hash = crypto.createHash("sha256");
+  let length = 0;
+  const uploadStream = bucket.openUploadStream(`${id}.${index}`, { metadata: { docId: id, index } });
+  try {
+    await pipeline(
+      req,
+      new Transform({
+        transform(chunk, _encoding, callback) {
+          hash.update(chunk);
+          length += chunk.length;
+          callback(null, chunk);
+        }
+      }),
+      uploadStream
+    );
+  } catch (error) {
+    console.error(`Error storing segment ${index} of ${id}:`, error);
+    await bucket.delete(uploadStream.id).catch(() => {});
+    return res.status(500).json({ error: "Error storing segment" });
+  }
+
+  const sha256 = hash.digest("hex");
+  const expected = req.get("X-Segment-Sha256");
+  if (expected && expected.toLowerCase() !== sha256) {
+    await bucket.delete(uploadStream.id);
+    return res.status(422).json({ error: "Segment digest mismatch", sha256 });
+  }
+
+  await db.collection("processedSegments.files").updateOne(
+    { _id: uploadStream.id },
+    { $set: { "metadata.sha256": sha256 } }
+  );
+  const older = await bucket.find({ "metadata.docId": id, "metadata.index": index }).toArray();
+  for (const segment of older) {
+    if (!segment._id.equals(uploadStream.id)) {
+      await bucket.delete(segment._id);
+    }
+  }
+
+  res.status(200).json({ index, length, sha256 });
+});
+
+router.post("/uploadProcessedFile/:id/complete", async (req, res) => {
+  const { id } = req.params;
+  const { fileName, size, segments } = req.body;
+  if (!ObjectId.isValid(id) || !fileName || !Array.isArray(segments)) {
+    return res.status(400).json({ error: "Expected 'fileName' and a 'segments' manifest" });
+  }
+
+  const stored = new Map();
+  for (const segment of await segmentBucket().find({ "metadata.docId": id }).toArray()) {
+    stored.set(segment.metadata.index, segment);
+  }
+
+  const ordered = [];
+  const missing = [];
+  let total = 0;
+  segments.forEach((entry, position) => {
+    const segment = stored.get(entry.index);
+    if (entry.index !== position || !segment
+        || segment.length !== entry.length || segment.metadata.sha256 !== entry.sha256) {
+      missing.push(entry.index);
+    } else {
+      ordered.push(segment._id);
+      total += segment.length;
+    }
+  });
+  if (missing.length > 0 || (size !== undefined && size !== total)) {
+    return res.status(409).json({ error: "Segments missing or not matching the manifest", missing });
+  }
+
+  const updateResult = await db.collection("data").updateOne(
+    { _id: new ObjectId(id) },
+    {
+      $set: { processedSegments: ordered, processedSize: total, processedFileName: fileName, processedAt: new Date() },
+      $unset: { processedFileId: "" }
+    }
+  );
+  if (updateResult.matchedCount === 0) {
+    return res.status(404).json({ error: "Document not found to update" });
+  }
+
+  // Segments left over from an earlier, different output of this request
+  await deleteSegments(id, ordered);
+
+  res.status(200).json({ message: "Segments assembled and document updated", segments: ordered.length, size: total });
+});
+
 router.get("/download/final/:docId", async (req, res) => {
   try {
     const docId = new ObjectId(req.params.docId);
@@ -189,6 +340,20 @@ router.get("/download/final/:docId", async (req, res) => {
       return res.status(404).send("Document not found");
     }
 
+    // Large files were uploaded in segments: stream them one after another
+    if (Array.isArray(document.processedSegments)) {
+      res.set({
+        'Content-Type': 'application/octet-stream',
+        'Content-Length': String(document.processedSize),
+        'Content-Disposition': `attachment; filename="${document.processedFileName}"`,
+      });
+      const bucket = segmentBucket();
+      for (const segmentId of document.processedSegments) {
+        await pipeline(bucket.openDownloadStream(segmentId), res, { end: false });
+      }
+      return res.end();
+    }
+
     // Step 2: Extract the GridFS file id from the document
     const fileId = document.processedFileId;
     if (!fileId) {
@@ -221,6 +386,9 @@ router.get("/download/final/:docId", async (req, res) => {
 
   } catch (error) {
     console.error("Error in download route:", error);
+    if (res.headersSent) {
+      return res.destroy(); // failed mid-stream, the client sees a short download
+    }
     res.status(400).send("Invalid document ID");
   }
 });
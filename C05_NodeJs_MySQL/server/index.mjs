@@ -9,7 +9,8 @@ const PORT = process.env.PORT || 5050;
 const app = express();
 
 app.use(cors());
-app.use(express.json());
+// Bulk submissions post one document per file, far beyond the 100kb default
+app.use(express.json({ limit: process.env.JSON_BODY_LIMIT || "5mb" }));
 
 app.use("/database", posts);
 
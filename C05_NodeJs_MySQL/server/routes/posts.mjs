@@ -100,6 +100,38 @@ router.post("/receive-form", async (req, res) => {
   }
 });
 
+// Stores many request forms in one transaction; the IDs come back in the order of the array.
+// One INSERT per row: a multi-row INSERT only hands out consecutive IDs under some autoinc lock modes.
+router.post("/receive-form/bulk", async (req, res) => {
+  if (!Array.isArray(req.body) || req.body.length === 0) {
+    return res.status(400).json({ error: "Expected a non-empty array of forms." });
+  }
+  const connection = await pool.getConnection();
+  try {
+    await connection.beginTransaction();
+    const insertedIds = [];
+    const requestIvs = [];
+    for (const { mode, aesLength, requestPassword, fileName, operation } of req.body) {
+      const requestIv = crypto.randomBytes(16).toString("hex");
+      const [result] = await connection.query(
+        `INSERT INTO data (requestIv, mode, aesLength, requestPassword, fileName, operation, date)
+         VALUES (?, ?, ?, ?, ?, ?, NOW())`,
+        [requestIv, mode, aesLength, requestPassword, fileName, operation]
+      );
+      insertedIds.push(result.insertId);
+      requestIvs.push(requestIv);
+    }
+    await connection.commit();
+    res.status(200).json({ acknowledged: true, insertedIds, requestIvs });
+  } catch (error) {
+    await connection.rollback();
+    console.error("Error inserting documents:", error);
+    res.status(500).json({ error: "Internal server error" });
+  } finally {
+    connection.release();
+  }
+});
+
 // Delete post and associated file (1-to-1)
 router.delete("/:id", async (req, res) => {
   try {
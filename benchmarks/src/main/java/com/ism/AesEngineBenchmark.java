@@ -0,0 +1,84 @@
+package com.ism;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * File-to-file throughput of the in-JVM cipher engine. Bytes per second is the score (ops/s)
+ * times {@code size}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AesEngineBenchmark {
+
+    private static final String IV = "000102030405060708090a0b0c0d0e0f";
+
+    @Param({"ECB", "CBC", "CTR", "GCM"})
+    public String mode;
+
+    @Param({"128", "192", "256"})
+    public int keyLengthBits;
+
+    @Param({"65536", "1048576", "16777216"})
+    public int size;
+
+    @Param({"encrypt", "decrypt"})
+    public String operation;
+
+    private Path dir;
+    private String key;
+    private String fileName;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("aes-bench");
+        key = "k".repeat(keyLengthBits / 8);
+
+        byte[] plain = new byte[size];
+        new Random(42).nextBytes(plain);
+        Files.write(dir.resolve("input.bin"), plain);
+
+        fileName = "input.bin";
+        if ("decrypt".equals(operation)) {
+            JavaAesEngine.process(dir, fileName, key, keyLengthBits, IV, mode, "encrypt");
+            fileName = "input.bin.out";
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public Path process() throws Exception {
+        return JavaAesEngine.process(dir, fileName, key, keyLengthBits, IV, mode, operation);
+    }
+}
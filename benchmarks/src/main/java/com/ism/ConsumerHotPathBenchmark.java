@@ -0,0 +1,121 @@
+package com.ism;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-job CPU work of the consumer outside the cipher: parsing the job message, hex-encoding the
+ * IV, and building and draining the streamed multipart upload body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsumerHotPathBenchmark {
+
+    @Param({"65536", "16777216"})
+    public int uploadSize;
+
+    private String jobMessage;
+    private byte[] iv;
+    private Path uploadFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        JSONObject job = new JSONObject();
+        job.put("id", "665f1c2e9b1e8a3d4c5b6a79");
+        job.put("fileUrl", "http://c01-javalin:7000/download/report.pdf");
+        job.put("fileName", "report.pdf");
+        job.put("aesLength", "256");
+        job.put("requestPassword", "k".repeat(32));
+        job.put("requestIv", "000102030405060708090a0b0c0d0e0f");
+        job.put("mode", "cbc");
+        job.put("operation", "encrypt");
+        jobMessage = job.toString();
+
+        iv = new byte[16];
+        new Random(42).nextBytes(iv);
+
+        byte[] content = new byte[uploadSize];
+        new Random(42).nextBytes(content);
+        uploadFile = Files.createTempFile("upload-bench", ".out");
+        Files.write(uploadFile, content);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(uploadFile);
+    }
+
+    @Benchmark
+    public JobRequest parseJobMessage() {
+        return JobRequest.parse(jobMessage);
+    }
+
+    @Benchmark
+    public String bytesToHex() {
+        return RabbitMqTopicConsumer.bytesToHex(iv);
+    }
+
+    @Benchmark
+    public long multipartBody() throws IOException {
+        HttpRequest.BodyPublisher body = RabbitMqTopicConsumer.multipartFileBody(
+                "----Boundary1700000000000", "665f1c2e9b1e8a3d4c5b6a79", "report.pdf.out", uploadFile);
+        return drain(body);
+    }
+
+    /**
+     * Reads the publisher to the end the way the HTTP client would and returns the byte count.
+     */
+    private static long drain(HttpRequest.BodyPublisher body) {
+        CompletableFuture<Long> done = new CompletableFuture<>();
+        body.subscribe(new Flow.Subscriber<>() {
+            private long bytes;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                bytes += item.remaining();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(bytes);
+            }
+        });
+        return done.join();
+    }
+}
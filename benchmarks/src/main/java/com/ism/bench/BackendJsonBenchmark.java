@@ -0,0 +1,86 @@
+package com.ism.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON work of the Javalin backend: building the job/form JSON in createFormData, and parsing the
+ * middleware list plus serializing it for /api/data (returnEntireDB).
+ *
+ * The backend classes live in the default package, which JMH benchmarks cannot, so they are
+ * reached through method handles resolved once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BackendJsonBenchmark {
+
+    @Param({"10", "50", "500"})
+    public int documents;
+
+    private MethodHandle formDataJson;
+    private MethodHandle parseDocuments;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private String listBody;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Class<?> main = Class.forName("Main");
+        formDataJson = MethodHandles.privateLookupIn(main, MethodHandles.lookup()).findStatic(main, "formDataJson",
+                MethodType.methodType(String.class, String.class, String.class, String.class, String.class,
+                        String.class, String.class, boolean.class));
+
+        Class<?> cache = Class.forName("RequestMetadataCache");
+        parseDocuments = MethodHandles.privateLookupIn(cache, MethodHandles.lookup()).findStatic(cache, "parseDocuments",
+                MethodType.methodType(List.class, String.class));
+
+        JSONArray list = new JSONArray();
+        for (int i = 0; i < documents; i++) {
+            JSONObject document = new JSONObject();
+            document.put("_id", String.format("665f1c2e9b1e8a3d4c5b%04x", i));
+            document.put("aesLength", "256");
+            document.put("requestPassword", "k".repeat(32));
+            document.put("requestIv", "000102030405060708090a0b0c0d0e0f");
+            document.put("mode", i % 2 == 0 ? "ecb" : "cbc");
+            document.put("operation", "encrypt");
+            document.put("fileName", "file-" + i + ".pdf");
+            document.put("date", "2025-06-04T12:00:00.000Z");
+            list.put(document);
+        }
+        listBody = list.toString();
+    }
+
+    @Benchmark
+    public String createFormData() throws Throwable {
+        return (String) formDataJson.invokeExact("256", "k".repeat(32), "000102030405060708090a0b0c0d0e0f",
+                "cbc", "encrypt", "quarterly report.pdf", false);
+    }
+
+    @Benchmark
+    public String returnEntireDB() throws Throwable {
+        List<?> parsed = (List<?>) parseDocuments.invokeExact(listBody);
+        return mapper.writeValueAsString(parsed);
+    }
+}
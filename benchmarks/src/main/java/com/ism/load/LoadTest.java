@@ -0,0 +1,574 @@
+package com.ism.load;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.CookieManager;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * End-to-end load test of the backend (Main) and the consumer (RabbitMqTopicConsumer) in one JVM,
+ * with {@link MiddlewareStub} in place of the Node middleware and {@link LocalBroker} in place of
+ * RabbitMQ, so a cluster can be sized without the compose stack.
+ *
+ * Jobs are uploaded to /send-request at a fixed rate (open loop: arrivals do not wait for earlier
+ * jobs), with file sizes drawn from a weighted mix, by a number of simulated browsers that each
+ * keep their own cookies and /ws-status session. A job's latency runs from the start of its upload
+ * to its completion message on /ws-status, so it includes the hub's WS_FLUSH_MS batching just as a
+ * browser sees it. Jobs started during the warm-up are run but not counted.
+ *
+ * The services read their settings from the environment, so the tool starts itself again as a
+ * child JVM with the stand-ins configured (see {@link #childEnvironment}); any other variable set
+ * by the caller, e.g. WORKER_THREADS or JOB_SCHEDULER, passes through. The services' own output
+ * goes to services.log in the work directory. The backend listens on its usual port 7000.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.ism.load.LoadTest \
+ *     --rate 5 --duration 60 --sizes 64KiB:70,1MiB:25,32MiB:5 --modes cbc,gcm --clients 8
+ * </pre>
+ */
+public final class LoadTest {
+
+    private static final String BACKEND = "http://localhost:7000";
+    private static final Pattern REQUEST_ID = Pattern.compile("[0-9a-f]{24}");
+
+    private LoadTest() {
+    }
+
+    private record SizeClass(String label, long bytes, int weight) {
+    }
+
+    private static final class Options {
+        double rate = 2;
+        long durationSeconds = 60;
+        long warmupSeconds = 10;
+        long timeoutSeconds = 300;
+        List<SizeClass> sizes = parseSizes("64KiB:70,1MiB:25,16MiB:5");
+        List<String> modes = List.of("cbc");
+        int clients = 8;
+        boolean poisson;
+        boolean download;
+        long middlewareLatencyMs;
+        long seed = 42;
+        Path out = Paths.get("load-result.json").toAbsolutePath();
+        Path workDir;
+    }
+
+    /**
+     * One uploaded job, from the start of its upload to its completion.
+     */
+    private static final class Job {
+        final int number;
+        final SizeClass size;
+        final String mode;
+        final Client client;
+        final boolean measured;
+        final String fileName;
+        final CompletableFuture<Long> completed = new CompletableFuture<>();
+        volatile long uploadStart;
+        volatile long uploadNanos = -1;
+        volatile String id;
+
+        Job(int number, SizeClass size, String mode, Client client, boolean measured) {
+            this.number = number;
+            this.size = size;
+            this.mode = mode;
+            this.client = client;
+            this.measured = measured;
+            this.fileName = "load-" + number + "-" + size.label.toLowerCase() + ".bin";
+        }
+    }
+
+    /**
+     * A simulated browser: its own cookies (so its own job owner) and its own status WebSocket.
+     */
+    private static final class Client implements WebSocket.Listener {
+        final HttpClient http;
+        final Map<String, Job> jobs;
+        final StringBuilder partial = new StringBuilder();
+        WebSocket socket;
+
+        Client(ExecutorService executor, Map<String, Job> jobs) {
+            this.http = HttpClient.newBuilder().executor(executor).cookieHandler(new CookieManager())
+                    .connectTimeout(Duration.ofSeconds(10)).build();
+            this.jobs = jobs;
+        }
+
+        void connect() {
+            socket = http.newWebSocketBuilder().buildAsync(URI.create("ws://localhost:7000/ws-status"), this).join();
+        }
+
+        synchronized void subscribe(String id) {
+            socket.sendText(new JSONObject().put("subscribe", new JSONArray().put(id)).toString(), true).join();
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            partial.append(data);
+            if (last) {
+                String message = partial.toString();
+                partial.setLength(0);
+                try {
+                    JSONObject event = new JSONObject(message);
+                    Job job = jobs.get(event.optString("id"));
+                    // Progress events carry a stage; the result carries the status
+                    if (job != null && event.has("status")) {
+                        job.completed.complete(System.nanoTime());
+                    }
+                } catch (RuntimeException ignored) {
+                    // not a status event
+                }
+            }
+            webSocket.request(1);
+            return null;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = parse(args);
+        if (!LocalBroker.class.getName().equals(System.getenv("JMS_CONNECTION_FACTORY"))) {
+            System.exit(runChild(options, args));
+        }
+        run(options);
+        System.exit(0);
+    }
+
+    /**
+     * Starts this tool again with the services pointed at the stand-ins, and waits for it.
+     */
+    private static int runChild(Options options, String[] args) throws IOException, InterruptedException {
+        Path workDir = options.workDir != null ? options.workDir : Files.createTempDirectory("ism-load-");
+        Files.createDirectories(workDir);
+        int middlewarePort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            middlewarePort = socket.getLocalPort();
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), LoadTest.class.getName()));
+        command.addAll(Arrays.asList(args));
+        command.addAll(List.of("--work-dir", workDir.toAbsolutePath().toString(), "--out", options.out.toString()));
+
+        ProcessBuilder child = new ProcessBuilder(command).directory(workDir.toFile()).inheritIO();
+        childEnvironment(child.environment(), workDir.toAbsolutePath(), middlewarePort);
+        return child.start().waitFor();
+    }
+
+    /**
+     * The stand-ins and local paths are always set; the rest are defaults for a single machine
+     * without MPI that the caller's environment overrides.
+     */
+    static void childEnvironment(Map<String, String> env, Path workDir, int middlewarePort) {
+        env.put("JMS_CONNECTION_FACTORY", LocalBroker.class.getName());
+        env.put("MIDDLEWARE_URL", "http://localhost:" + middlewarePort + "/database");
+        env.put("DOWNLOAD_BASE_URL", BACKEND + "/download/");
+        env.put("UPLOAD_DIR", workDir.resolve("fileInput").toString());
+        env.put("DATA_DIR", workDir.resolve("data").toString());
+        env.putIfAbsent("CIPHER_ENGINE", "java");
+        env.putIfAbsent("RESULT_CACHE_MAX_BYTES", "0"); // identical inputs would otherwise be served from the cache
+        env.putIfAbsent("RESULT_CACHE_DIR", workDir.resolve("cache").toString());
+        env.putIfAbsent("SNMP_NODES", "");
+        env.putIfAbsent("WS_MAX_SUBSCRIPTIONS", "100000"); // a client here stands for many browsers' jobs
+    }
+
+    private static void run(Options options) throws Exception {
+        PrintStream console = System.out;
+        PrintStream log = new PrintStream(Files.newOutputStream(options.workDir.resolve("services.log")), true,
+                StandardCharsets.UTF_8);
+        System.setOut(log);
+        System.setErr(log);
+
+        Map<String, Job> jobsById = new ConcurrentHashMap<>();
+        Map<String, Job> jobsByFile = new ConcurrentHashMap<>();
+        int middlewarePort = URI.create(System.getenv("MIDDLEWARE_URL")).getPort();
+        MiddlewareStub middleware = new MiddlewareStub(middlewarePort, options.workDir.resolve("middleware"),
+                options.middlewareLatencyMs, (id, document) -> {
+            // Subscribe before the backend publishes the job, so its completion cannot be missed
+            Job job = jobsByFile.get(document.optString("fileName"));
+            if (job != null) {
+                job.id = id;
+                jobsById.put(id, job);
+                job.client.subscribe(id);
+            }
+        });
+        middleware.start();
+        startServices(console);
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < options.clients; i++) {
+            Client client = new Client(executor, jobsById);
+            client.connect();
+            clients.add(client);
+        }
+        Map<SizeClass, Path> inputs = generateInputs(options);
+
+        console.printf("Load: %.2f jobs/s for %d s after %d s of warm-up, sizes %s, modes %s, %d clients%n",
+                options.rate, options.durationSeconds, options.warmupSeconds, describe(options.sizes),
+                String.join(",", options.modes), options.clients);
+
+        Random random = new Random(options.seed);
+        List<Job> jobs = new ArrayList<>();
+        AtomicInteger inFlight = new AtomicInteger();
+        long start = System.nanoTime();
+        long warmupEnd = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        long next = start;
+        long lastReport = start;
+        for (int number = 0; next < end; number++) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            Job job = new Job(number, pick(options.sizes, random), options.modes.get(number % options.modes.size()),
+                    clients.get(number % clients.size()), next >= warmupEnd);
+            jobs.add(job);
+            jobsByFile.put(job.fileName, job);
+            inFlight.incrementAndGet();
+            executor.submit(() -> submit(job, inputs.get(job.size), options, middleware, inFlight));
+
+            double interval = 1e9 / options.rate;
+            next += (long) (options.poisson ? -Math.log(1 - random.nextDouble()) * interval : interval);
+            if (System.nanoTime() - lastReport > TimeUnit.SECONDS.toNanos(10)) {
+                lastReport = System.nanoTime();
+                console.printf("  %3d s: %d jobs submitted, %d in flight%n",
+                        TimeUnit.NANOSECONDS.toSeconds(lastReport - start), jobs.size(), inFlight.get());
+            }
+        }
+
+        console.printf("Arrivals done, waiting up to %d s for %d jobs in flight%n", options.timeoutSeconds, inFlight.get());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.timeoutSeconds);
+        for (Job job : jobs) {
+            try {
+                job.completed.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (Exception ignored) {
+                // counted as timed out or failed
+            }
+        }
+
+        JSONObject result = report(options, jobs, warmupEnd, console);
+        Files.writeString(options.out, result.toString(2));
+        console.printf("Results written to %s, service logs in %s%n", options.out,
+                options.workDir.resolve("services.log"));
+        for (Path input : inputs.values()) {
+            Files.deleteIfExists(input);
+        }
+    }
+
+    /**
+     * Runs the consumer and the backend in this JVM and waits until both listen on the broker.
+     */
+    private static void startServices(PrintStream console) throws Exception {
+        Thread consumer = new Thread(() -> {
+            try {
+                com.ism.RabbitMqTopicConsumer.main(new String[0]);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "load-consumer");
+        consumer.setDaemon(true);
+        consumer.start();
+
+        // The backend is in the default package, which cannot be imported
+        Class.forName("Main").getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+
+        boolean queueDelivery = "queue".equalsIgnoreCase(System.getenv("JOB_DELIVERY"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!(LocalBroker.subscribed("aesResultTopic") && (queueDelivery || LocalBroker.subscribed("aesTopic")))) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Services did not subscribe to the local broker; see services.log");
+            }
+            Thread.sleep(50);
+        }
+        console.println("Backend and consumer started");
+    }
+
+    private static void submit(Job job, Path input, Options options, MiddlewareStub middleware, AtomicInteger inFlight) {
+        String boundary = "----LoadTest" + job.number;
+        String fields = field(boundary, "aesLength", "128")
+                + field(boundary, "requestPassword", "0123456789abcdef")
+                + field(boundary, "requestIv", "")
+                + field(boundary, "mode", job.mode)
+                + field(boundary, "operation", "encrypt")
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"files\"; filename=\"" + job.fileName + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n";
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(BACKEND + "/send-request"))
+                    .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                    .POST(HttpRequest.BodyPublishers.concat(
+                            HttpRequest.BodyPublishers.ofString(fields),
+                            HttpRequest.BodyPublishers.ofFile(input),
+                            HttpRequest.BodyPublishers.ofString("\r\n--" + boundary + "--\r\n")))
+                    .build();
+            job.uploadStart = System.nanoTime();
+            HttpResponse<String> response = job.client.http.send(request, HttpResponse.BodyHandlers.ofString());
+            job.uploadNanos = System.nanoTime() - job.uploadStart;
+            Matcher id = REQUEST_ID.matcher(response.body());
+            if (response.statusCode() != 200 || !id.find()) {
+                throw new IOException("HTTP " + response.statusCode() + ": " + response.body());
+            }
+            try {
+                job.completed.get(options.timeoutSeconds, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                System.err.printf("[WARN] Load job %d did not complete within %d s%n", job.number, options.timeoutSeconds);
+                return;
+            }
+            if (options.download) {
+                HttpResponse<Void> download = job.client.http.send(
+                        HttpRequest.newBuilder(URI.create(BACKEND + "/download/final/" + job.id)).build(),
+                        HttpResponse.BodyHandlers.discarding());
+                if (download.statusCode() != 200) {
+                    throw new IOException("Download answered HTTP " + download.statusCode());
+                }
+            }
+        } catch (Exception e) {
+            job.completed.completeExceptionally(e);
+            System.err.printf("[WARN] Load job %d failed: %s%n", job.number, e);
+        } finally {
+            inFlight.decrementAndGet();
+            cleanUp(job, middleware);
+        }
+    }
+
+    private static String field(String boundary, String name, String value) {
+        return "--" + boundary + "\r\n" + "Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value + "\r\n";
+    }
+
+    /**
+     * Removes the job's copies from the backend's uploads, the consumer's data and the stub, so a
+     * long run does not fill the disk.
+     */
+    private static void cleanUp(Job job, MiddlewareStub middleware) {
+        try {
+            Files.deleteIfExists(Paths.get(System.getenv("UPLOAD_DIR"), job.fileName));
+            Files.deleteIfExists(Paths.get(System.getenv("DATA_DIR"), job.fileName));
+            Files.deleteIfExists(Paths.get(System.getenv("DATA_DIR"), job.fileName + ".out"));
+        } catch (IOException e) {
+            System.err.printf("[WARN] Could not clean up load job %d: %s%n", job.number, e.getMessage());
+        }
+        if (job.id != null) {
+            middleware.forget(job.id);
+        }
+    }
+
+    private static JSONObject report(Options options, List<Job> jobs, long warmupEnd, PrintStream console) {
+        List<Job> measured = jobs.stream().filter(job -> job.measured).toList();
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        long bytes = 0;
+        int failed = 0;
+        int timedOut = 0;
+        Map<String, List<Long>> latencies = new LinkedHashMap<>();
+        latencies.put("all", new ArrayList<>());
+        options.sizes.forEach(size -> latencies.put(size.label, new ArrayList<>()));
+        List<Long> uploads = new ArrayList<>();
+        for (Job job : measured) {
+            if (job.uploadNanos >= 0) {
+                uploads.add(job.uploadNanos);
+            }
+            if (!job.completed.isDone()) {
+                timedOut++;
+                continue;
+            }
+            if (job.completed.isCompletedExceptionally()) {
+                failed++;
+                continue;
+            }
+            long done = job.completed.join();
+            first = Math.min(first, job.uploadStart);
+            last = Math.max(last, done);
+            bytes += job.size.bytes;
+            latencies.get("all").add(done - job.uploadStart);
+            latencies.get(job.size.label).add(done - job.uploadStart);
+        }
+
+        int completed = latencies.get("all").size();
+        double seconds = completed > 0 ? (last - first) / 1e9 : 0;
+        JSONObject result = new JSONObject()
+                .put("rate", options.rate)
+                .put("durationSeconds", options.durationSeconds)
+                .put("sizes", describe(options.sizes))
+                .put("modes", String.join(",", options.modes))
+                .put("clients", options.clients)
+                .put("submitted", measured.size())
+                .put("completed", completed)
+                .put("failed", failed)
+                .put("timedOut", timedOut)
+                .put("throughputJobsPerSecond", seconds > 0 ? completed / seconds : 0)
+                .put("throughputMiBPerSecond", seconds > 0 ? bytes / seconds / (1 << 20) : 0)
+                .put("brokerMessages", LocalBroker.sentMessages());
+
+        console.printf("%nSubmitted %d, completed %d, failed %d, timed out %d%n", measured.size(), completed, failed, timedOut);
+        console.printf("Throughput: %.2f jobs/s, %.2f MiB/s of input%n",
+                result.getDouble("throughputJobsPerSecond"), result.getDouble("throughputMiBPerSecond"));
+        console.printf("%-12s %8s %10s %10s %10s %10s%n", "latency (ms)", "jobs", "p50", "p95", "p99", "max");
+        JSONObject latencyJson = new JSONObject();
+        latencies.forEach((label, values) -> {
+            latencyJson.put(label, percentiles(values));
+            printPercentiles(console, label, values);
+        });
+        printPercentiles(console, "upload", uploads);
+        result.put("latencyMs", latencyJson);
+        result.put("uploadMs", percentiles(uploads));
+        return result;
+    }
+
+    private static JSONObject percentiles(List<Long> nanos) {
+        long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        return new JSONObject()
+                .put("count", sorted.length)
+                .put("p50", percentile(sorted, 0.50))
+                .put("p95", percentile(sorted, 0.95))
+                .put("p99", percentile(sorted, 0.99))
+                .put("max", percentile(sorted, 1.0));
+    }
+
+    private static void printPercentiles(PrintStream console, String label, List<Long> nanos) {
+        long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        console.printf("%-12s %8d %10.1f %10.1f %10.1f %10.1f%n", label, sorted.length, percentile(sorted, 0.50),
+                percentile(sorted, 0.95), percentile(sorted, 0.99), percentile(sorted, 1.0));
+    }
+
+    /**
+     * Nearest-rank percentile in milliseconds, 0 when there are no values.
+     */
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+
+    private static Map<SizeClass, Path> generateInputs(Options options) throws IOException {
+        Path dir = Files.createDirectories(options.workDir.resolve("inputs"));
+        Random random = new Random(options.seed);
+        byte[] block = new byte[1 << 20];
+        Map<SizeClass, Path> inputs = new LinkedHashMap<>();
+        for (SizeClass size : options.sizes) {
+            Path file = dir.resolve(size.label + ".bin");
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (long left = size.bytes; left > 0; left -= block.length) {
+                    random.nextBytes(block);
+                    out.write(block, 0, (int) Math.min(block.length, left));
+                }
+            }
+            inputs.put(size, file);
+        }
+        return inputs;
+    }
+
+    private static SizeClass pick(List<SizeClass> sizes, Random random) {
+        int total = sizes.stream().mapToInt(SizeClass::weight).sum();
+        int ticket = random.nextInt(total);
+        for (SizeClass size : sizes) {
+            ticket -= size.weight;
+            if (ticket < 0) {
+                return size;
+            }
+        }
+        return sizes.getLast();
+    }
+
+    private static String describe(List<SizeClass> sizes) {
+        return String.join(",", sizes.stream().map(size -> size.label + ":" + size.weight).toList());
+    }
+
+    /**
+     * Parses a mix like "64KiB:70,1MiB:25,64MiB:5": sizes with optional KiB/MiB/GiB (or K/M/G)
+     * suffixes and their relative weights.
+     */
+    static List<SizeClass> parseSizes(String spec) {
+        List<SizeClass> sizes = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.trim().split(":");
+            Matcher size = Pattern.compile("(\\d+)\\s*([KMG]?)(?:i?B)?", Pattern.CASE_INSENSITIVE).matcher(parts[0].trim());
+            if (!size.matches()) {
+                throw new IllegalArgumentException("Bad size in --sizes: " + parts[0]);
+            }
+            int shift = switch (size.group(2).toUpperCase()) {
+                case "K" -> 10;
+                case "M" -> 20;
+                case "G" -> 30;
+                default -> 0;
+            };
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            if (weight < 1) {
+                throw new IllegalArgumentException("Weights in --sizes must be at least 1: " + entry);
+            }
+            sizes.add(new SizeClass(parts[0].trim(), Long.parseLong(size.group(1)) << shift, weight));
+        }
+        return sizes;
+    }
+
+    private static Options parse(String[] args) {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--poisson")) {
+                options.poisson = true;
+                continue;
+            }
+            if (args[i].equals("--download")) {
+                options.download = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            String value = args[++i];
+            switch (args[i - 1]) {
+                case "--rate" -> options.rate = Double.parseDouble(value);
+                case "--duration" -> options.durationSeconds = Long.parseLong(value);
+                case "--warmup" -> options.warmupSeconds = Long.parseLong(value);
+                case "--timeout" -> options.timeoutSeconds = Long.parseLong(value);
+                case "--sizes" -> options.sizes = parseSizes(value);
+                case "--modes" -> options.modes = List.of(value.split(","));
+                case "--clients" -> options.clients = Integer.parseInt(value);
+                case "--middleware-latency-ms" -> options.middlewareLatencyMs = Long.parseLong(value);
+                case "--seed" -> options.seed = Long.parseLong(value);
+                case "--out" -> options.out = Paths.get(value).toAbsolutePath();
+                case "--work-dir" -> options.workDir = Paths.get(value).toAbsolutePath();
+                default -> throw new IllegalArgumentException("Unknown option " + args[i - 1] + "; options: --rate"
+                        + " --duration --warmup --timeout --sizes --modes --clients --poisson --download"
+                        + " --middleware-latency-ms --seed --out --work-dir");
+            }
+        }
+        if (options.rate <= 0 || options.clients < 1 || options.modes.isEmpty()) {
+            throw new IllegalArgumentException("--rate must be positive and --clients at least 1");
+        }
+        return options;
+    }
+}
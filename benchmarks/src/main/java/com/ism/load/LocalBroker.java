@@ -0,0 +1,727 @@
+package com.ism.load;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the RabbitMQ broker, so the backend and the consumer can run together in
+ * one JVM without the compose stack. Both pick it up through
+ * {@code JMS_CONNECTION_FACTORY=com.ism.load.LocalBroker}; every instance shares the same
+ * destinations.
+ *
+ * It covers what the two modules use: non-durable topics (each open consumer gets its own copy,
+ * nobody listening means the message is dropped), queues with competing consumers, client
+ * acknowledgement with recover and redelivery, transacted sends, listeners and receive, text and
+ * bytes messages. Anything else throws. Nothing is persisted and there is no flow control, so a
+ * slow consumer's backlog stays in memory.
+ */
+public final class LocalBroker implements ConnectionFactory {
+
+    private static final Map<String, List<LocalConsumer>> topics = new ConcurrentHashMap<>();
+    private static final Map<String, BlockingDeque<LocalMessage>> queues = new ConcurrentHashMap<>();
+    private static final AtomicLong messageIds = new AtomicLong();
+    private static final AtomicLong sent = new AtomicLong();
+
+    @Override
+    public Connection createConnection() {
+        return expose(Connection.class, new LocalConnection());
+    }
+
+    @Override
+    public Connection createConnection(String userName, String password) {
+        return createConnection();
+    }
+
+    @Override
+    public JMSContext createContext() {
+        throw new JMSRuntimeException("JMSContext is not supported by the local broker");
+    }
+
+    @Override
+    public JMSContext createContext(String userName, String password) {
+        return createContext();
+    }
+
+    @Override
+    public JMSContext createContext(String userName, String password, int sessionMode) {
+        return createContext();
+    }
+
+    @Override
+    public JMSContext createContext(int sessionMode) {
+        return createContext();
+    }
+
+    /**
+     * Messages sent so far, over all destinations.
+     */
+    static long sentMessages() {
+        return sent.get();
+    }
+
+    /**
+     * Whether a consumer is open on the topic, so that what is sent to it now is delivered.
+     */
+    static boolean subscribed(String topic) {
+        return !topics.getOrDefault(topic, List.of()).isEmpty();
+    }
+
+    /**
+     * Messages waiting on queues, not yet received by any consumer.
+     */
+    static long queuedMessages() {
+        return queues.values().stream().mapToLong(BlockingDeque::size).sum();
+    }
+
+    private static void dispatch(Destination destination, LocalMessage message) {
+        sent.incrementAndGet();
+        message.messageId = "ID:local-" + messageIds.incrementAndGet();
+        message.timestamp = System.currentTimeMillis();
+        message.destination = destination;
+        if (destination instanceof LocalQueue queue) {
+            queue(queue.name).addLast(message);
+        } else {
+            for (LocalConsumer consumer : topics.getOrDefault(((LocalTopic) destination).name, List.of())) {
+                consumer.source.addLast(message.copy());
+            }
+        }
+    }
+
+    private static BlockingDeque<LocalMessage> queue(String name) {
+        return queues.computeIfAbsent(name, n -> new LinkedBlockingDeque<>());
+    }
+
+    // The JMS interfaces are wide; the classes below implement the part this project calls and
+    // expose() turns each into its interface, the other methods throwing.
+
+    @SuppressWarnings("unchecked")
+    private static <T> T expose(Class<T> type, Object target) {
+        return (T) Proxy.newProxyInstance(LocalBroker.class.getClassLoader(), new Class<?>[]{type}, new Exposed(target));
+    }
+
+    private static LocalMessage unwrap(Message message) throws JMSException {
+        if (message != null && Proxy.isProxyClass(message.getClass())
+                && Proxy.getInvocationHandler(message) instanceof Exposed exposed
+                && exposed.target instanceof LocalMessage local) {
+            return local;
+        }
+        throw new JMSException("Not a message of the local broker: " + message);
+    }
+
+    private static final class Exposed implements InvocationHandler {
+        private final Object target;
+
+        Exposed(Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals" -> {
+                    if (method.getParameterCount() == 1) {
+                        return proxy == args[0];
+                    }
+                }
+                case "hashCode" -> {
+                    if (method.getParameterCount() == 0) {
+                        return System.identityHashCode(proxy);
+                    }
+                }
+                default -> {
+                }
+            }
+            Method implementation;
+            try {
+                implementation = target.getClass().getMethod(method.getName(), method.getParameterTypes());
+            } catch (NoSuchMethodException e) {
+                String what = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+                if (List.of(method.getExceptionTypes()).contains(JMSException.class)) {
+                    throw new JMSException(what + " is not supported by the local broker");
+                }
+                throw new JMSRuntimeException(what + " is not supported by the local broker");
+            }
+            try {
+                return implementation.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private record LocalTopic(String name) implements Topic {
+        @Override
+        public String getTopicName() {
+            return name;
+        }
+    }
+
+    private record LocalQueue(String name) implements Queue {
+        @Override
+        public String getQueueName() {
+            return name;
+        }
+    }
+
+    public static final class LocalConnection {
+        private final List<LocalSession> sessions = new CopyOnWriteArrayList<>();
+        private volatile boolean started;
+        private volatile boolean closed;
+        private ExceptionListener exceptionListener;
+        private String clientId;
+
+        public Session createSession(boolean transacted, int acknowledgeMode) throws JMSException {
+            if (closed) {
+                throw new JMSException("Connection is closed");
+            }
+            LocalSession session = new LocalSession(this, transacted,
+                    transacted ? Session.SESSION_TRANSACTED : acknowledgeMode);
+            sessions.add(session);
+            return expose(Session.class, session);
+        }
+
+        public Session createSession(int sessionMode) throws JMSException {
+            return createSession(sessionMode == Session.SESSION_TRANSACTED, sessionMode);
+        }
+
+        public Session createSession() throws JMSException {
+            return createSession(false, Session.AUTO_ACKNOWLEDGE);
+        }
+
+        public void start() {
+            started = true;
+        }
+
+        public void stop() {
+            started = false;
+        }
+
+        public void close() {
+            closed = true;
+            sessions.forEach(LocalSession::close);
+        }
+
+        public void setExceptionListener(ExceptionListener listener) {
+            exceptionListener = listener;
+        }
+
+        public ExceptionListener getExceptionListener() {
+            return exceptionListener;
+        }
+
+        public String getClientID() {
+            return clientId;
+        }
+
+        public void setClientID(String clientId) {
+            this.clientId = clientId;
+        }
+
+        @Override
+        public String toString() {
+            return "LocalConnection";
+        }
+    }
+
+    public static final class LocalSession {
+        private final LocalConnection connection;
+        private final boolean transacted;
+        private final int acknowledgeMode;
+        private final List<LocalConsumer> consumers = new CopyOnWriteArrayList<>();
+        private final List<Map.Entry<Destination, LocalMessage>> uncommitted = new ArrayList<>();
+        private final ArrayDeque<LocalMessage> unacknowledged = new ArrayDeque<>();
+        private volatile boolean closed;
+
+        LocalSession(LocalConnection connection, boolean transacted, int acknowledgeMode) {
+            this.connection = connection;
+            this.transacted = transacted;
+            this.acknowledgeMode = acknowledgeMode;
+        }
+
+        public Topic createTopic(String name) {
+            return new LocalTopic(name);
+        }
+
+        public Queue createQueue(String name) {
+            return new LocalQueue(name);
+        }
+
+        public TextMessage createTextMessage() {
+            return createTextMessage(null);
+        }
+
+        public TextMessage createTextMessage(String text) {
+            LocalMessage message = new LocalMessage(false);
+            message.text = text;
+            return (TextMessage) message.view();
+        }
+
+        public BytesMessage createBytesMessage() {
+            return (BytesMessage) new LocalMessage(true).view();
+        }
+
+        public MessageProducer createProducer(Destination destination) throws JMSException {
+            checkOpen();
+            return expose(MessageProducer.class, new LocalProducer(this, destination));
+        }
+
+        public MessageConsumer createConsumer(Destination destination) throws JMSException {
+            checkOpen();
+            LocalConsumer consumer;
+            if (destination instanceof LocalQueue queue) {
+                consumer = new LocalConsumer(this, queue(queue.name), true);
+            } else if (destination instanceof LocalTopic topic) {
+                consumer = new LocalConsumer(this, new LinkedBlockingDeque<>(), false);
+                topics.computeIfAbsent(topic.name, name -> new CopyOnWriteArrayList<>()).add(consumer);
+                consumer.topic = topic.name;
+            } else {
+                throw new JMSException("Not a destination of the local broker: " + destination);
+            }
+            consumers.add(consumer);
+            return expose(MessageConsumer.class, consumer);
+        }
+
+        public boolean getTransacted() {
+            return transacted;
+        }
+
+        public int getAcknowledgeMode() {
+            return acknowledgeMode;
+        }
+
+        public synchronized void commit() throws JMSException {
+            if (!transacted) {
+                throw new JMSException("Session is not transacted");
+            }
+            uncommitted.forEach(send -> dispatch(send.getKey(), send.getValue()));
+            uncommitted.clear();
+        }
+
+        public synchronized void rollback() throws JMSException {
+            if (!transacted) {
+                throw new JMSException("Session is not transacted");
+            }
+            uncommitted.clear();
+        }
+
+        /**
+         * Puts the messages received and not acknowledged back at the head of their queues.
+         */
+        public synchronized void recover() {
+            while (!unacknowledged.isEmpty()) {
+                LocalMessage message = unacknowledged.pollLast();
+                message.redelivered = true;
+                queue(((LocalQueue) message.destination).name).addFirst(message);
+            }
+        }
+
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            consumers.forEach(LocalConsumer::close);
+            recover();
+            connection.sessions.remove(this);
+        }
+
+        synchronized void send(Destination destination, LocalMessage message) {
+            if (transacted) {
+                uncommitted.add(Map.entry(destination, message));
+            } else {
+                dispatch(destination, message);
+            }
+        }
+
+        /**
+         * Records a message handed to the application; queue messages stay unacknowledged until
+         * {@link Message#acknowledge()} in CLIENT_ACKNOWLEDGE mode.
+         */
+        synchronized Message delivered(LocalMessage message, boolean fromQueue) {
+            if (fromQueue && acknowledgeMode == Session.CLIENT_ACKNOWLEDGE) {
+                message.session = this;
+                unacknowledged.addLast(message);
+            }
+            return message.view();
+        }
+
+        synchronized void acknowledge() {
+            unacknowledged.clear();
+        }
+
+        private void checkOpen() throws JMSException {
+            if (closed) {
+                throw new JMSException("Session is closed");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "LocalSession";
+        }
+    }
+
+    public static final class LocalProducer {
+        private final LocalSession session;
+        private final Destination destination;
+
+        LocalProducer(LocalSession session, Destination destination) {
+            this.session = session;
+            this.destination = destination;
+        }
+
+        public Destination getDestination() {
+            return destination;
+        }
+
+        public void send(Message message) throws JMSException {
+            send(destination, message);
+        }
+
+        public void send(Destination target, Message message) throws JMSException {
+            if (!(target instanceof LocalQueue || target instanceof LocalTopic)) {
+                throw new JMSException("Not a destination of the local broker: " + target);
+            }
+            session.send(target, unwrap(message));
+        }
+
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return "LocalProducer(" + destination + ")";
+        }
+    }
+
+    public static final class LocalConsumer {
+        private final LocalSession session;
+        private final BlockingDeque<LocalMessage> source;
+        private final boolean fromQueue;
+        private String topic;
+        private volatile MessageListener listener;
+        private volatile boolean closed;
+
+        LocalConsumer(LocalSession session, BlockingDeque<LocalMessage> source, boolean fromQueue) {
+            this.session = session;
+            this.source = source;
+            this.fromQueue = fromQueue;
+        }
+
+        public MessageListener getMessageListener() {
+            return listener;
+        }
+
+        public String getMessageSelector() {
+            return null;
+        }
+
+        /**
+         * Delivers to {@code listener} on a thread of this consumer, one message at a time.
+         */
+        public synchronized void setMessageListener(MessageListener listener) {
+            boolean first = this.listener == null;
+            this.listener = listener;
+            if (first && listener != null) {
+                Thread dispatcher = new Thread(this::dispatchLoop, "local-broker-" + (fromQueue ? "queue" : topic));
+                dispatcher.setDaemon(true);
+                dispatcher.start();
+            }
+        }
+
+        public Message receive() throws JMSException {
+            Message message;
+            while ((message = receive(1000)) == null) {
+                if (closed) {
+                    return null;
+                }
+            }
+            return message;
+        }
+
+        public Message receive(long timeout) throws JMSException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            try {
+                while (!closed) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        return null;
+                    }
+                    if (!session.connection.started) {
+                        TimeUnit.NANOSECONDS.sleep(Math.min(left, TimeUnit.MILLISECONDS.toNanos(10)));
+                        continue;
+                    }
+                    LocalMessage message = source.pollFirst(left, TimeUnit.NANOSECONDS);
+                    if (message != null) {
+                        return session.delivered(message, fromQueue);
+                    }
+                }
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JMSException("Interrupted while receiving");
+            }
+        }
+
+        public Message receiveNoWait() throws JMSException {
+            LocalMessage message = session.connection.started ? source.pollFirst() : null;
+            return message == null ? null : session.delivered(message, fromQueue);
+        }
+
+        public void close() {
+            closed = true;
+            if (topic != null) {
+                topics.getOrDefault(topic, List.of()).remove(this);
+            }
+        }
+
+        private void dispatchLoop() {
+            while (!closed) {
+                try {
+                    Message message = receive(100);
+                    if (message != null) {
+                        listener.onMessage(message);
+                    }
+                } catch (RuntimeException e) {
+                    System.err.println("[WARN] Local broker listener failed: " + e);
+                } catch (JMSException e) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "LocalConsumer(" + (fromQueue ? "queue" : topic) + ")";
+        }
+    }
+
+    public static final class LocalMessage {
+        private final boolean bytes;
+        private final Map<String, Object> properties = new HashMap<>();
+        private String text;
+        private byte[] body = new byte[0];
+        private int position;
+        private String messageId;
+        private long timestamp;
+        private Destination destination;
+        private String correlationId;
+        private String type;
+        private volatile boolean redelivered;
+        private volatile LocalSession session;
+
+        LocalMessage(boolean bytes) {
+            this.bytes = bytes;
+        }
+
+        Message view() {
+            return bytes ? expose(BytesMessage.class, this) : expose(TextMessage.class, this);
+        }
+
+        LocalMessage copy() {
+            LocalMessage copy = new LocalMessage(bytes);
+            copy.properties.putAll(properties);
+            copy.text = text;
+            copy.body = body;
+            copy.messageId = messageId;
+            copy.timestamp = timestamp;
+            copy.destination = destination;
+            copy.correlationId = correlationId;
+            copy.type = type;
+            return copy;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public void setText(String text) {
+            this.text = text;
+        }
+
+        public long getBodyLength() {
+            return body.length;
+        }
+
+        public int readBytes(byte[] into) {
+            return readBytes(into, into.length);
+        }
+
+        public int readBytes(byte[] into, int length) {
+            if (position >= body.length) {
+                return -1;
+            }
+            int count = Math.min(length, body.length - position);
+            System.arraycopy(body, position, into, 0, count);
+            position += count;
+            return count;
+        }
+
+        public void writeBytes(byte[] value) {
+            writeBytes(value, 0, value.length);
+        }
+
+        public void writeBytes(byte[] value, int offset, int length) {
+            byte[] grown = Arrays.copyOf(body, body.length + length);
+            System.arraycopy(value, offset, grown, body.length, length);
+            body = grown;
+        }
+
+        public void reset() {
+            position = 0;
+        }
+
+        public void clearBody() {
+            text = null;
+            body = new byte[0];
+            position = 0;
+        }
+
+        public void acknowledge() {
+            LocalSession owner = session;
+            if (owner != null) {
+                owner.acknowledge();
+            }
+        }
+
+        public String getJMSMessageID() {
+            return messageId;
+        }
+
+        public void setJMSMessageID(String id) {
+            messageId = id;
+        }
+
+        public long getJMSTimestamp() {
+            return timestamp;
+        }
+
+        public void setJMSTimestamp(long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        public boolean getJMSRedelivered() {
+            return redelivered;
+        }
+
+        public void setJMSRedelivered(boolean redelivered) {
+            this.redelivered = redelivered;
+        }
+
+        public Destination getJMSDestination() {
+            return destination;
+        }
+
+        public String getJMSCorrelationID() {
+            return correlationId;
+        }
+
+        public void setJMSCorrelationID(String correlationId) {
+            this.correlationId = correlationId;
+        }
+
+        public String getJMSType() {
+            return type;
+        }
+
+        public void setJMSType(String type) {
+            this.type = type;
+        }
+
+        public synchronized boolean propertyExists(String name) {
+            return properties.containsKey(name);
+        }
+
+        public synchronized Enumeration<String> getPropertyNames() {
+            return Collections.enumeration(new ArrayList<>(properties.keySet()));
+        }
+
+        public synchronized void clearProperties() {
+            properties.clear();
+        }
+
+        public synchronized Object getObjectProperty(String name) {
+            if (name.equals("JMSXDeliveryCount")) {
+                return redelivered ? 2 : 1;
+            }
+            return properties.get(name);
+        }
+
+        public synchronized void setObjectProperty(String name, Object value) {
+            properties.put(name, value);
+        }
+
+        public String getStringProperty(String name) {
+            Object value = getObjectProperty(name);
+            return value == null ? null : value.toString();
+        }
+
+        public void setStringProperty(String name, String value) {
+            setObjectProperty(name, value);
+        }
+
+        public boolean getBooleanProperty(String name) {
+            Object value = getObjectProperty(name);
+            return value instanceof Boolean flag ? flag : Boolean.parseBoolean(getStringProperty(name));
+        }
+
+        public void setBooleanProperty(String name, boolean value) {
+            setObjectProperty(name, value);
+        }
+
+        public int getIntProperty(String name) {
+            Object value = getObjectProperty(name);
+            return value instanceof Number number ? number.intValue() : Integer.parseInt(String.valueOf(value));
+        }
+
+        public void setIntProperty(String name, int value) {
+            setObjectProperty(name, value);
+        }
+
+        public long getLongProperty(String name) {
+            Object value = getObjectProperty(name);
+            return value instanceof Number number ? number.longValue() : Long.parseLong(String.valueOf(value));
+        }
+
+        public void setLongProperty(String name, long value) {
+            setObjectProperty(name, value);
+        }
+
+        @Override
+        public String toString() {
+            return (bytes ? "LocalBytesMessage(" + body.length + " bytes)" : "LocalTextMessage") + "[" + messageId + "]";
+        }
+    }
+}
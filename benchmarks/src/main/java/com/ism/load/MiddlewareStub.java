@@ -0,0 +1,332 @@
+package com.ism.load;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Embedded stand-in for the c05-nodejs middleware, answering the routes the backend and the
+ * consumer call under /database: receive-form and its bulk variant, the list, check-password, updateIv, the single and
+ * segmented uploadProcessedFile, and download/final.
+ *
+ * Documents live in memory and processed files on disk under the given directory, so memory stays
+ * flat whatever the file sizes. An optional fixed delay on every call stands in for the database.
+ */
+final class MiddlewareStub {
+
+    private record Stored(Path file, long offset, long length, String fileName) {
+    }
+
+    private record Segment(Path file, long length, String sha256) {
+    }
+
+    private final HttpServer server;
+    private final Path dir;
+    private final long latencyMs;
+    private final BiConsumer<String, JSONObject> onInsert;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<String, JSONObject> documents = new ConcurrentHashMap<>();
+    private final Map<String, Stored> outputs = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, Segment>> segments = new ConcurrentHashMap<>();
+
+    /**
+     * @param onInsert called with the new ID and document before receive-form answers, i.e. before
+     *                 the backend can publish the job
+     */
+    MiddlewareStub(int port, Path dir, long latencyMs, BiConsumer<String, JSONObject> onInsert) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.latencyMs = latencyMs;
+        this.onInsert = onInsert;
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/database", this::handle);
+    }
+
+    void start() {
+        server.start();
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Drops what the stub holds for a finished job.
+     */
+    void forget(String id) {
+        documents.remove(id);
+        Stored output = outputs.remove(id);
+        Map<Integer, Segment> parts = segments.remove(id);
+        try {
+            if (output != null) {
+                Files.deleteIfExists(output.file);
+            }
+            if (parts != null) {
+                for (Segment segment : parts.values()) {
+                    Files.deleteIfExists(segment.file);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not delete stub output of " + id + ": " + e.getMessage());
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs);
+            }
+            String[] path = exchange.getRequestURI().getPath().substring("/database".length()).split("/");
+            String method = exchange.getRequestMethod();
+            String route = path.length > 1 ? path[1] : "";
+            switch (method + " " + route) {
+                case "GET " -> json(exchange, 200, new JSONArray(documents.values()).toString());
+                case "POST receive-form" -> {
+                    if (path.length > 2 && path[2].equals("bulk")) {
+                        receiveFormBulk(exchange);
+                    } else {
+                        receiveForm(exchange);
+                    }
+                }
+                case "POST check-password" -> checkPassword(exchange, path[2]);
+                case "PATCH updateIv" -> updateIv(exchange, path[2]);
+                case "POST uploadProcessedFile" -> {
+                    if (path.length == 2) {
+                        uploadProcessedFile(exchange);
+                    } else {
+                        completeSegments(exchange, path[2]);
+                    }
+                }
+                case "GET uploadProcessedFile" -> listSegments(exchange, path[2]);
+                case "PUT uploadProcessedFile" -> putSegment(exchange, path[2], Integer.parseInt(path[4]));
+                case "GET download" -> downloadFinal(exchange, path[3]);
+                default -> json(exchange, 404, new JSONObject().put("error", "No stub for " + method + " " + route).toString());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            json(exchange, 400, new JSONObject().put("error", String.valueOf(e.getMessage())).toString());
+        }
+    }
+
+    private void receiveForm(HttpExchange exchange) throws IOException {
+        JSONObject document = new JSONObject(body(exchange));
+        String id = String.format("%024x", ids.incrementAndGet());
+        document.put("_id", id);
+        documents.put(id, document);
+        onInsert.accept(id, document);
+        json(exchange, 200, new JSONObject().put("acknowledged", true).put("insertedId", id).toString());
+    }
+
+    private void receiveFormBulk(HttpExchange exchange) throws IOException {
+        JSONArray forms = new JSONArray(body(exchange));
+        JSONArray insertedIds = new JSONArray();
+        for (int i = 0; i < forms.length(); i++) {
+            JSONObject document = forms.getJSONObject(i);
+            String id = String.format("%024x", ids.incrementAndGet());
+            document.put("_id", id);
+            documents.put(id, document);
+            onInsert.accept(id, document);
+            insertedIds.put(id);
+        }
+        json(exchange, 200, new JSONObject().put("acknowledged", true).put("insertedIds", insertedIds).toString());
+    }
+
+    private void checkPassword(HttpExchange exchange, String id) throws IOException {
+        JSONObject document = documents.get(id);
+        if (document == null) {
+            json(exchange, 404, new JSONObject().put("error", "Document not found.").toString());
+            return;
+        }
+        boolean success = document.optString("requestPassword").equals(new JSONObject(body(exchange)).optString("password"));
+        json(exchange, success ? 200 : 401, new JSONObject().put("success", success).toString());
+    }
+
+    private void updateIv(HttpExchange exchange, String id) throws IOException {
+        JSONObject document = documents.get(id);
+        if (document == null) {
+            json(exchange, 404, new JSONObject().put("error", "Document not found").toString());
+            return;
+        }
+        document.put("requestIv", new JSONObject(body(exchange)).getString("requestIv"));
+        json(exchange, 200, new JSONObject().put("message", "requestIv updated successfully").toString());
+    }
+
+    /**
+     * The consumer's multipart upload: an "id" field, then the file. The body is stored as it came
+     * and the file part is located in it afterwards.
+     */
+    private void uploadProcessedFile(HttpExchange exchange) throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        String boundary = contentType == null ? null : contentType.replaceFirst(".*boundary=", "");
+        Path file = Files.createTempFile(dir, "upload-", ".part");
+        try (InputStream in = exchange.getRequestBody()) {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        byte[] head;
+        try (InputStream in = Files.newInputStream(file)) {
+            head = in.readNBytes(8192);
+        }
+        String preamble = new String(head, StandardCharsets.ISO_8859_1);
+        int idStart = preamble.indexOf("name=\"id\"\r\n\r\n");
+        int fileHeader = preamble.indexOf("name=\"file\"");
+        int fileStart = fileHeader < 0 ? -1 : preamble.indexOf("\r\n\r\n", fileHeader);
+        if (boundary == null || idStart < 0 || fileStart < 0) {
+            Files.delete(file);
+            json(exchange, 400, new JSONObject().put("error", "Invalid or missing 'id' field").toString());
+            return;
+        }
+        idStart += "name=\"id\"\r\n\r\n".length();
+        String id = preamble.substring(idStart, preamble.indexOf("\r\n", idStart));
+        String fileName = preamble.replaceFirst("(?s).*name=\"file\"; filename=\"([^\"]*)\".*", "$1");
+        long offset = fileStart + 4;
+        long length = Files.size(file) - offset - ("\r\n--" + boundary + "--\r\n").length();
+        if (!documents.containsKey(id)) {
+            Files.delete(file);
+            json(exchange, 404, new JSONObject().put("error", "Document not found to update").toString());
+            return;
+        }
+        Stored previous = outputs.put(id, new Stored(file, offset, length, fileName));
+        if (previous != null) {
+            Files.deleteIfExists(previous.file);
+        }
+        json(exchange, 200, new JSONObject().put("message", "File uploaded and document updated").toString());
+    }
+
+    private void listSegments(HttpExchange exchange, String id) throws IOException {
+        JSONArray list = new JSONArray();
+        segments.getOrDefault(id, Map.of()).forEach((index, segment) -> list.put(new JSONObject()
+                .put("index", index).put("length", segment.length).put("sha256", segment.sha256)));
+        json(exchange, 200, new JSONObject().put("segments", list).toString());
+    }
+
+    private void putSegment(HttpExchange exchange, String id, int index) throws IOException {
+        Path file = dir.resolve(id + "." + index + ".segment");
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(exchange.getRequestBody(), digest)) {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        String sha256 = HexFormat.of().formatHex(digest.digest());
+        String expected = exchange.getRequestHeaders().getFirst("X-Segment-Sha256");
+        if (expected != null && !expected.equalsIgnoreCase(sha256)) {
+            Files.delete(file);
+            json(exchange, 422, new JSONObject().put("error", "Segment digest mismatch").put("sha256", sha256).toString());
+            return;
+        }
+        long length = Files.size(file);
+        segments.computeIfAbsent(id, k -> new ConcurrentHashMap<>()).put(index, new Segment(file, length, sha256));
+        json(exchange, 200, new JSONObject().put("index", index).put("length", length).put("sha256", sha256).toString());
+    }
+
+    private void completeSegments(HttpExchange exchange, String id) throws IOException {
+        JSONObject manifest = new JSONObject(body(exchange));
+        JSONArray entries = manifest.getJSONArray("segments");
+        Map<Integer, Segment> stored = segments.getOrDefault(id, Map.of());
+        List<Integer> missing = new ArrayList<>();
+        long total = 0;
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            Segment segment = stored.get(entry.getInt("index"));
+            if (entry.getInt("index") != i || segment == null || segment.length != entry.getLong("length")
+                    || !segment.sha256.equals(entry.getString("sha256"))) {
+                missing.add(entry.getInt("index"));
+            } else {
+                total += segment.length;
+            }
+        }
+        if (!missing.isEmpty() || manifest.optLong("size", total) != total) {
+            json(exchange, 409, new JSONObject().put("error", "Segments missing or not matching the manifest")
+                    .put("missing", missing).toString());
+            return;
+        }
+        JSONObject document = documents.get(id);
+        if (document == null) {
+            json(exchange, 404, new JSONObject().put("error", "Document not found to update").toString());
+            return;
+        }
+        document.put("processedFileName", manifest.getString("fileName")).put("processedSize", total)
+                .put("processedSegments", entries.length());
+        json(exchange, 200, new JSONObject().put("segments", entries.length()).put("size", total).toString());
+    }
+
+    private void downloadFinal(HttpExchange exchange, String id) throws IOException {
+        JSONObject document = documents.get(id);
+        Stored output = outputs.get(id);
+        if (document != null && document.has("processedSegments")) {
+            Map<Integer, Segment> parts = segments.get(id);
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.getResponseHeaders().set("Content-Disposition",
+                    "attachment; filename=\"" + document.getString("processedFileName") + "\"");
+            exchange.sendResponseHeaders(200, document.getLong("processedSize"));
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int index = 0; index < document.getInt("processedSegments"); index++) {
+                    Files.copy(parts.get(index).file, out);
+                }
+            }
+        } else if (output != null) {
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + output.fileName + "\"");
+            exchange.sendResponseHeaders(200, output.length);
+            try (InputStream in = Files.newInputStream(output.file); OutputStream out = exchange.getResponseBody()) {
+                in.skipNBytes(output.offset);
+                long left = output.length;
+                byte[] buffer = new byte[64 * 1024];
+                while (left > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                    if (read < 0) {
+                        break;
+                    }
+                    out.write(buffer, 0, read);
+                    left -= read;
+                }
+            }
+        } else {
+            byte[] text = "No associated file found for this document".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(404, text.length);
+            exchange.getResponseBody().write(text);
+        }
+    }
+
+    private static String body(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void json(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}